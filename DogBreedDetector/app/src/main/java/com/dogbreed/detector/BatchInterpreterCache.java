@@ -0,0 +1,116 @@
+package com.dogbreed.detector;
+
+import java.nio.ByteBuffer;
+
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * Keeps one interpreter per batch size for a single-input, single-output model. Batch sizes are
+ * rounded up to the next power of two, so a handful of interpreters cover every batch and each one
+ * only pays for {@code resizeInput} and tensor allocation once, when it is first used.
+ */
+public class BatchInterpreterCache
+{
+    private final ByteBuffer model;
+    private final Interpreter.Options options;
+    private final int maxBatchSize;
+    private final Interpreter[] interpreters;
+    private final int[][] inputShapes;
+    private final int[][] outputShapes;
+
+    /**
+     * @param model the mapped model file, shared by every interpreter.
+     * @param options interpreter options, applied to every interpreter.
+     * @param maxBatchSize largest batch handed to a single invocation. Rounded up to a power of two.
+     */
+    public BatchInterpreterCache(final ByteBuffer model, final Interpreter.Options options, final int maxBatchSize)
+    {
+        this.model = model;
+        this.options = options;
+        this.maxBatchSize = roundUpToPowerOfTwo(maxBatchSize);
+
+        final int numBuckets = Integer.numberOfTrailingZeros(this.maxBatchSize) + 1;
+        interpreters = new Interpreter[numBuckets];
+        inputShapes = new int[numBuckets][];
+        outputShapes = new int[numBuckets][];
+
+        // The batch-of-one interpreter is built eagerly to learn the model's shapes.
+        interpreters[0] = new Interpreter(model, options);
+        final int[] inputShape = interpreters[0].getInputTensor(0).shape();
+        final int[] outputShape = interpreters[0].getOutputTensor(0).shape();
+        for (int i = 0; i < numBuckets; i++)
+        {
+            inputShapes[i] = inputShape.clone();
+            inputShapes[i][0] = 1 << i;
+            outputShapes[i] = outputShape.clone();
+            outputShapes[i][0] = 1 << i;
+        }
+    }
+
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    /** Returns the batch size actually used to run {@code count} items, between 1 and the maximum. */
+    public int getBatchSize(final int count)
+    {
+        return Math.min(maxBatchSize, roundUpToPowerOfTwo(count));
+    }
+
+    /** Input shape of the interpreter serving {@code batchSize}, as returned by {@link #getBatchSize}. */
+    public int[] getInputShape(final int batchSize)
+    {
+        return inputShapes[bucketIndex(batchSize)];
+    }
+
+    /** Output shape of the interpreter serving {@code batchSize}, as returned by {@link #getBatchSize}. */
+    public int[] getOutputShape(final int batchSize)
+    {
+        return outputShapes[bucketIndex(batchSize)];
+    }
+
+    /** Returns the interpreter for {@code batchSize}, as returned by {@link #getBatchSize}. */
+    public synchronized Interpreter getInterpreter(final int batchSize)
+    {
+        final int index = bucketIndex(batchSize);
+        if (interpreters[index] == null)
+        {
+            final Interpreter interpreter = new Interpreter(model, options);
+            interpreter.resizeInput(0, inputShapes[index]);
+            interpreters[index] = interpreter;
+        }
+
+        return interpreters[index];
+    }
+
+    public synchronized void setNumThreads(final int numThreads)
+    {
+        for (final Interpreter interpreter : interpreters)
+        {
+            if (interpreter != null) interpreter.setNumThreads(numThreads);
+        }
+    }
+
+    public synchronized void close()
+    {
+        for (int i = 0; i < interpreters.length; i++)
+        {
+            if (interpreters[i] != null)
+            {
+                interpreters[i].close();
+                interpreters[i] = null;
+            }
+        }
+    }
+
+    private static int bucketIndex(final int batchSize)
+    {
+        return Integer.numberOfTrailingZeros(batchSize);
+    }
+
+    private static int roundUpToPowerOfTwo(final int value)
+    {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
@@ -14,6 +14,8 @@ public class BorderedText
 {
     private final Paint interiorPaint;
     private final Paint exteriorPaint;
+    // Reused for the label backgrounds, which take their color from the caller's paint.
+    private final Paint backgroundPaint = new Paint();
     private final float textSize;
 
     /**
@@ -51,6 +53,8 @@ public class BorderedText
         exteriorPaint.setAntiAlias(false);
         exteriorPaint.setAlpha(255);
 
+        backgroundPaint.setStyle(Style.FILL);
+
         this.textSize = textSize;
     }
 
@@ -68,17 +72,31 @@ public class BorderedText
 
     public void drawText(final Canvas canvas, final float posX, final float posY, final String text, Paint bgPaint)
     {
+        drawText(canvas, posX, posY, text, measureText(text), bgPaint);
+    }
 
-        float width = exteriorPaint.measureText(text);
+    /**
+     * Draws text on a translucent background in the color of {@code bgPaint}, with a width
+     * measured before by {@link #measureText}, so that labels that don't change aren't measured
+     * again on every draw.
+     */
+    public void drawText(
+            final Canvas canvas, final float posX, final float posY, final String text, final float width, final Paint bgPaint)
+    {
         float textSize = exteriorPaint.getTextSize();
-        Paint paint = new Paint(bgPaint);
-        paint.setStyle(Paint.Style.FILL);
-        paint.setAlpha(160);
-        canvas.drawRect(posX, (posY + (int) (textSize)), (posX + (int) (width)), posY, paint);
+        backgroundPaint.setColor(bgPaint.getColor());
+        backgroundPaint.setAlpha(160);
+        canvas.drawRect(posX, (posY + (int) (textSize)), (posX + (int) (width)), posY, backgroundPaint);
 
         canvas.drawText(text, posX, (posY + textSize), interiorPaint);
     }
 
+    /** Width of {@code text} as drawn on a background. */
+    public float measureText(final String text)
+    {
+        return exteriorPaint.measureText(text);
+    }
+
     public float getTextSize() {
         return textSize;
     }
@@ -0,0 +1,16 @@
+package com.dogbreed.detector;
+
+/**
+ * Source of breed results that are still valid for a detection, so the classifier can skip running
+ * MobileNet on it.
+ */
+public interface BreedCache
+{
+    /**
+     * Returns a still valid breed result for a box, or null if the box has to be classified.
+     *
+     * @param left box edges in frame coordinates.
+     * @param timestamp capture timestamp of the frame, in nanoseconds.
+     */
+    BreedResult lookup(float left, float top, float right, float bottom, long timestamp);
+}
@@ -0,0 +1,70 @@
+package com.dogbreed.detector;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Selects the best dog breeds from a MobileNet output row. The MobileNet output indices that are dog
+ * breeds are kept in their own dense array, so the selection never touches the other classes, and
+ * breed names are only looked up for the breeds that make the final ranking.
+ */
+public class BreedIndex
+{
+    private final LabelBundle labels;
+    private final int[] dogIndices;
+    private final int[] dogBreedIds;
+
+    public BreedIndex(final LabelBundle labels)
+    {
+        this.labels = labels;
+
+        int count = 0;
+        for (int i = 0; i < labels.getNumOutputs(); i++)
+        {
+            if (labels.getBreedId(i) >= 0) count++;
+        }
+
+        dogIndices = new int[count];
+        dogBreedIds = new int[count];
+        int index = 0;
+        for (int i = 0; i < labels.getNumOutputs(); i++)
+        {
+            final int breedId = labels.getBreedId(i);
+            if (breedId >= 0)
+            {
+                dogIndices[index] = i;
+                dogBreedIds[index] = breedId;
+                index++;
+            }
+        }
+    }
+
+    public int getNumDogIndices() {
+        return dogIndices.length;
+    }
+
+    /**
+     * Fills {@code out} with the best dog breeds of one MobileNet output row.
+     *
+     * @param scores class scores of the batch.
+     * @param offset position of this row's first score.
+     * @param minScore breeds scoring at or below this are ignored.
+     * @param out receives up to {@link BreedResult#capacity()} breeds, best first.
+     */
+    public void selectTopK(final FloatBuffer scores, final int offset, final float minScore, final BreedResult out)
+    {
+        out.clear();
+        for (int i = 0; i < dogIndices.length; i++)
+        {
+            final float score = scores.get(offset + dogIndices[i]);
+            if (score > minScore)
+            {
+                out.offer(dogBreedIds[i], score);
+            }
+        }
+
+        for (int rank = 0; rank < out.size(); rank++)
+        {
+            out.setName(rank, labels.getBreedName(out.getBreedId(rank)));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.dogbreed.detector;
+
+/**
+ * The best scoring breeds for one detected dog, highest score first.
+ */
+public class BreedResult
+{
+    private final int[] breedIds;
+    private final String[] names;
+    private final float[] scores;
+    private int size = 0;
+    private long timestamp;
+
+    /**
+     * @param capacity maximum number of breeds kept.
+     */
+    public BreedResult(final int capacity)
+    {
+        breedIds = new int[capacity];
+        names = new String[capacity];
+        scores = new float[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return names.length;
+    }
+
+    public int getBreedId(final int rank) {
+        return breedIds[rank];
+    }
+
+    public String getName(final int rank) {
+        return names[rank];
+    }
+
+    public float getScore(final int rank) {
+        return scores[rank];
+    }
+
+    /** Capture timestamp, in nanoseconds, of the frame these breeds were classified on. */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /** Name of the best breed, or an empty string when there is none. */
+    public String getTopName() {
+        return size > 0 ? names[0] : "";
+    }
+
+    void clear()
+    {
+        size = 0;
+    }
+
+    /** Copies the breeds of {@code other}, keeping at most this result's capacity. */
+    void copyFrom(final BreedResult other)
+    {
+        size = Math.min(other.size, names.length);
+        System.arraycopy(other.breedIds, 0, breedIds, 0, size);
+        System.arraycopy(other.names, 0, names, 0, size);
+        System.arraycopy(other.scores, 0, scores, 0, size);
+        timestamp = other.timestamp;
+    }
+
+    void setTimestamp(final long timestamp)
+    {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Inserts a breed at its rank, dropping the lowest one when full. Names are set afterwards
+     * with {@link #setName}, once the final ranking is known.
+     *
+     * @return false if the score is too low to be kept.
+     */
+    boolean offer(final int breedId, final float score)
+    {
+        if (size == names.length && score <= scores[size - 1])
+        {
+            return false;
+        }
+
+        int rank = size < names.length ? size++ : size - 1;
+        while (rank > 0 && scores[rank - 1] < score)
+        {
+            breedIds[rank] = breedIds[rank - 1];
+            scores[rank] = scores[rank - 1];
+            rank--;
+        }
+
+        breedIds[rank] = breedId;
+        scores[rank] = score;
+
+        return true;
+    }
+
+    void setName(final int rank, final String name)
+    {
+        names[rank] = name;
+    }
+}
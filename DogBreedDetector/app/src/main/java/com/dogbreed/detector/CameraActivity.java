@@ -9,7 +9,6 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
-import android.media.Image.Plane;
 import android.media.ImageReader;
 import android.media.ImageReader.OnImageAvailableListener;
 import android.os.Build;
@@ -24,7 +23,6 @@ import android.view.View;
 import android.view.WindowManager;
 import android.widget.CompoundButton;
 import android.widget.Toast;
-import java.nio.ByteBuffer;
 
 public abstract class CameraActivity extends AppCompatActivity
         implements OnImageAvailableListener,
@@ -39,12 +37,18 @@ public abstract class CameraActivity extends AppCompatActivity
     private Handler handler;
     private HandlerThread handlerThread;
     private boolean useCamera2API;
-    private boolean isProcessingFrame = false;
-    private byte[][] yuvBytes = new byte[3][];
-    private int[] rgbBytes = null;
-    private int yRowStride;
-    private Runnable postInferenceCallback;
-    private Runnable imageConverter;
+    // Newest camera image, waiting to be picked up by the detector. Images it replaces are closed.
+    private final FrameMailbox<Image> frameMailbox =
+            new FrameMailbox<Image>(
+                    new FrameMailbox.Releaser<Image>()
+                    {
+                        @Override
+                        public void release(final Image image)
+                        {
+                            image.close();
+                        }
+                    });
+    private final FrameClock frameClock = new FrameClock();
 
     @Override
     protected void onCreate(final Bundle savedInstanceState)
@@ -65,10 +69,19 @@ public abstract class CameraActivity extends AppCompatActivity
         }
     }
 
-    protected int[] getRgbBytes()
+    /**
+     * Returns the mailbox the camera posts its images to. Whoever takes an image from it owns it and
+     * must close it.
+     */
+    protected FrameMailbox<Image> getFrameMailbox()
     {
-        imageConverter.run();
-        return rgbBytes;
+        return frameMailbox;
+    }
+
+    /** Relates the timestamps of camera images to {@link System#nanoTime()}. */
+    protected FrameClock getFrameClock()
+    {
+        return frameClock;
     }
 
     /** Callback for Camera2 API */
@@ -80,10 +93,6 @@ public abstract class CameraActivity extends AppCompatActivity
         {
             return;
         }
-        if (rgbBytes == null)
-        {
-            rgbBytes = new int[previewWidth * previewHeight];
-        }
         try
         {
             final Image image = reader.acquireLatestImage();
@@ -93,50 +102,9 @@ public abstract class CameraActivity extends AppCompatActivity
                 return;
             }
 
-            if (isProcessingFrame)
-            {
-                image.close();
-                return;
-            }
-
-            isProcessingFrame = true;
             Trace.beginSection("imageAvailable");
-            final Plane[] planes = image.getPlanes();
-            fillBytes(planes, yuvBytes);
-            yRowStride = planes[0].getRowStride();
-            final int uvRowStride = planes[1].getRowStride();
-            final int uvPixelStride = planes[1].getPixelStride();
-
-            imageConverter =
-                    new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            ImageUtils.convertYUV420ToARGB8888(
-                                    yuvBytes[0],
-                                    yuvBytes[1],
-                                    yuvBytes[2],
-                                    previewWidth,
-                                    previewHeight,
-                                    yRowStride,
-                                    uvRowStride,
-                                    uvPixelStride,
-                                    rgbBytes);
-                        }
-                    };
-
-            postInferenceCallback =
-                    new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            image.close();
-                            isProcessingFrame = false;
-                        }
-                    };
-
+            frameClock.onFrameArrived(image.getTimestamp(), System.nanoTime());
+            frameMailbox.post(image);
             processImage();
         }
         catch (final Exception e)
@@ -185,6 +153,9 @@ public abstract class CameraActivity extends AppCompatActivity
         }
 
         super.onPause();
+
+        // The camera is closed by now; give back the image nobody is going to take.
+        frameMailbox.clear();
     }
 
     @Override
@@ -344,7 +315,8 @@ public abstract class CameraActivity extends AppCompatActivity
                             },
                             this,
                             getLayoutId(),
-                            getDesiredPreviewFrameSize());
+                            getDesiredPreviewFrameSize(),
+                            getMaxHeldImages());
 
             camera2Fragment.setCamera(cameraId);
             fragment = camera2Fragment;
@@ -353,31 +325,6 @@ public abstract class CameraActivity extends AppCompatActivity
         getFragmentManager().beginTransaction().replace(R.id.container, fragment).commit();
     }
 
-    protected void fillBytes(final Plane[] planes, final byte[][] yuvBytes)
-    {
-        // Because of the variable row stride it's not possible to know in
-        // advance the actual necessary dimensions of the yuv planes.
-        for (int i = 0; i < planes.length; ++i)
-        {
-            final ByteBuffer buffer = planes[i].getBuffer();
-            if (yuvBytes[i] == null)
-            {
-                LOGGER.d("Initializing buffer %d at size %d", i, buffer.capacity());
-                yuvBytes[i] = new byte[buffer.capacity()];
-            }
-
-            buffer.get(yuvBytes[i]);
-        }
-    }
-
-    protected void readyForNextImage()
-    {
-        if (postInferenceCallback != null)
-        {
-            postInferenceCallback.run();
-        }
-    }
-
     protected int getScreenOrientation()
     {
         switch (getWindowManager().getDefaultDisplay().getRotation())
@@ -410,6 +357,9 @@ public abstract class CameraActivity extends AppCompatActivity
 
     protected abstract Size getDesiredPreviewFrameSize();
 
+    /** Number of camera images taken from the frame mailbox that may be open at the same time. */
+    protected abstract int getMaxHeldImages();
+
     protected abstract void setNumThreads(int numThreads);
 
     protected abstract void setUseNNAPI(boolean isChecked);
@@ -71,6 +71,8 @@ public class CameraConnectionFragment extends Fragment {
     private final Size inputSize;
     /** The layout identifier to inflate for this Fragment. */
     private final int layout;
+    /** Number of preview images the image listener's consumers may hold at once. */
+    private final int maxHeldImages;
 
     private final ConnectionCallback cameraConnectionCallback;
     private final CameraCaptureSession.CaptureCallback captureCallback =
@@ -169,12 +171,14 @@ public class CameraConnectionFragment extends Fragment {
             final ConnectionCallback connectionCallback,
             final OnImageAvailableListener imageListener,
             final int layout,
-            final Size inputSize)
+            final Size inputSize,
+            final int maxHeldImages)
     {
         this.cameraConnectionCallback = connectionCallback;
         this.imageListener = imageListener;
         this.layout = layout;
         this.inputSize = inputSize;
+        this.maxHeldImages = maxHeldImages;
     }
 
     /**
@@ -226,8 +230,9 @@ public class CameraConnectionFragment extends Fragment {
             final ConnectionCallback callback,
             final OnImageAvailableListener imageListener,
             final int layout,
-            final Size inputSize) {
-        return new CameraConnectionFragment(callback, imageListener, layout, inputSize);
+            final Size inputSize,
+            final int maxHeldImages) {
+        return new CameraConnectionFragment(callback, imageListener, layout, inputSize, maxHeldImages);
     }
 
     /**
@@ -414,10 +419,13 @@ public class CameraConnectionFragment extends Fragment {
 
            // LOGGER.i("Opening camera preview: " + previewSize.getWidth() + "x" + previewSize.getHeight());
 
-            // Create the reader for the preview frames.
+            // Create the reader for the preview frames. Besides the images held downstream, one may
+            // wait in the frame mailbox and acquireLatestImage needs one more to be free, so holding
+            // images never stalls the camera.
             previewReader =
                     ImageReader.newInstance(
-                            previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+                            previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888,
+                            maxHeldImages + 2);
 
             previewReader.setOnImageAvailableListener(imageListener, backgroundHandler);
             previewRequestBuilder.addTarget(previewReader.getSurface());
@@ -1,13 +1,40 @@
 package com.dogbreed.detector;
 
-import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.RectF;
 
 import java.util.List;
 
 public interface Classifier
 {
-    List<Recognition> recognizeImage(Bitmap bitmap);
+    /**
+     * Runs detection and breed classification on a camera frame.
+     *
+     * @param frame the YUV camera frame.
+     * @param cropToFrameTransform maps model input coordinates into frame coordinates. Returned
+     *     locations are in model input coordinates.
+     */
+    List<Recognition> recognizeImage(YuvFrame frame, Matrix cropToFrameTransform);
+
+    /**
+     * Pipeline stage: converts a frame into a detector input borrowed from the classifier. The input
+     * must be given back with {@link #releaseInput}.
+     */
+    TensorBuffer convert(YuvFrame frame, Matrix cropToFrameTransform);
+
+    /** Pipeline stage: runs detection and non maximum suppression on a converted input. */
+    void detect(TensorBuffer input, DetectionCandidates candidates);
+
+    /**
+     * Pipeline stage: classifies the breed of every detection. Returned locations are in model
+     * input coordinates.
+     *
+     * @param breedCache detections it still has a breed for are not classified again. May be null.
+     */
+    List<Recognition> classify(
+            DetectionCandidates candidates, YuvFrame frame, Matrix cropToFrameTransform, BreedCache breedCache);
+
+    void releaseInput(TensorBuffer input);
 
     void setNumThreads(int num_threads);
 
@@ -15,6 +42,9 @@ public interface Classifier
 
     abstract float getObjThresh();
 
+    /** Releases the interpreters and buffers. The classifier can't be used afterwards. */
+    void close();
+
     /**
      * An immutable result returned by a Classifier describing what was recognized.
      */
@@ -45,6 +75,8 @@ public interface Classifier
 
         private String breedName;
 
+        private BreedResult breedResult;
+
         public Recognition(
                 final String id, final String title, final Float confidence, final RectF location)
         {
@@ -81,6 +113,14 @@ public interface Classifier
             return new RectF(location);
         }
 
+        /**
+         * Returns the location itself instead of a copy, for callers that only read it or map it in
+         * place and don't keep it. May be null.
+         */
+        public RectF peekLocation() {
+            return location;
+        }
+
         public void setLocation(RectF location) {
             this.location = location;
         }
@@ -96,5 +136,14 @@ public interface Classifier
         public void setBreedName(String breedName) { this.breedName = breedName; }
 
         public String getBreedName() { return this.breedName; }
+
+        /** Sets the best breeds of this dog; the breed name becomes the top one. */
+        public void setBreedResult(BreedResult breedResult)
+        {
+            this.breedResult = breedResult;
+            this.breedName = breedResult.getTopName();
+        }
+
+        public BreedResult getBreedResult() { return this.breedResult; }
     }
 }
@@ -0,0 +1,210 @@
+package com.dogbreed.detector;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Keeps the loaded classifier alive for the whole process, so a rotation or a short pause doesn't
+ * rebuild the interpreters. Users acquire and release it; once nobody holds it, it is closed after
+ * {@link #IDLE_TIMEOUT_MS}, or right away when memory runs low.
+ *
+ * <p>All methods are meant to be called on the main thread, and listeners are called there too.
+ */
+public class ClassifierHolder implements ComponentCallbacks2
+{
+    private static final Logger LOGGER = new Logger();
+
+    // How long an unused classifier is kept around for the next activity.
+    private static final long IDLE_TIMEOUT_MS = 30000;
+
+    private static ClassifierHolder instance;
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<ClassifierLoader.Listener> pendingListeners = new ArrayList<>();
+    // Deliveries of an already loaded classifier that are posted but haven't run yet, by listener.
+    private final HashMap<ClassifierLoader.Listener, Runnable> pendingDeliveries = new HashMap<>();
+
+    private ClassifierLoader loader;
+    private Classifier classifier;
+    private int refCount = 0;
+
+    private final Runnable idleRelease = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            LOGGER.i("Releasing idle classifier");
+            closeClassifier();
+        }
+    };
+
+    private ClassifierHolder(final Context context)
+    {
+        this.context = context;
+    }
+
+    public static synchronized ClassifierHolder getInstance(final Context context)
+    {
+        if (instance == null)
+        {
+            instance = new ClassifierHolder(context.getApplicationContext());
+            instance.context.registerComponentCallbacks(instance);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Takes a reference to the classifier, loading it first if needed. The listener is called on the
+     * main thread once it is ready, right away if it already is. Every call must be matched by a call
+     * to {@link #release}.
+     *
+     * <p>The classifier is loaded from the filenames given by the first caller; later callers share it.
+     */
+    public synchronized void acquire(
+            final String modelFilename, final String labelFilename, final ClassifierLoader.Listener listener)
+    {
+        refCount++;
+        mainHandler.removeCallbacks(idleRelease);
+
+        if (classifier != null)
+        {
+            final Classifier ready = classifier;
+            final Runnable delivery = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (ClassifierHolder.this)
+                    {
+                        if (pendingDeliveries.get(listener) != this)
+                        {
+                            return;
+                        }
+
+                        pendingDeliveries.remove(listener);
+                    }
+
+                    listener.onClassifierReady(ready);
+                }
+            };
+            pendingDeliveries.put(listener, delivery);
+            mainHandler.post(delivery);
+            return;
+        }
+
+        pendingListeners.add(listener);
+        if (loader == null)
+        {
+            loader = new ClassifierLoader(context.getAssets(), modelFilename, labelFilename);
+            loader.load(new ClassifierLoader.Listener()
+            {
+                @Override
+                public void onClassifierReady(final Classifier loaded)
+                {
+                    onLoaded(loaded, null);
+                }
+
+                @Override
+                public void onClassifierFailed(final Exception e)
+                {
+                    onLoaded(null, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops a reference taken with {@link #acquire}. The caller must no longer use the classifier,
+     * and its listener won't be called anymore.
+     */
+    public synchronized void release(final ClassifierLoader.Listener listener)
+    {
+        pendingListeners.remove(listener);
+        final Runnable delivery = pendingDeliveries.remove(listener);
+        if (delivery != null)
+        {
+            mainHandler.removeCallbacks(delivery);
+        }
+
+        if (refCount == 0)
+        {
+            return;
+        }
+
+        refCount--;
+        if (refCount == 0)
+        {
+            mainHandler.postDelayed(idleRelease, IDLE_TIMEOUT_MS);
+        }
+    }
+
+    private synchronized void onLoaded(final Classifier loaded, final Exception error)
+    {
+        loader = null;
+        classifier = loaded;
+
+        final ArrayList<ClassifierLoader.Listener> listeners = new ArrayList<>(pendingListeners);
+        pendingListeners.clear();
+        for (final ClassifierLoader.Listener listener : listeners)
+        {
+            if (loaded != null)
+            {
+                listener.onClassifierReady(loaded);
+            }
+            else
+            {
+                listener.onClassifierFailed(error);
+            }
+        }
+    }
+
+    private synchronized void closeClassifier()
+    {
+        if (refCount > 0)
+        {
+            return;
+        }
+
+        mainHandler.removeCallbacks(idleRelease);
+        if (loader != null)
+        {
+            // The loader closes the classifier itself once it has finished building it.
+            loader.cancel();
+            loader = null;
+        }
+
+        if (classifier != null)
+        {
+            classifier.close();
+            classifier = null;
+        }
+    }
+
+    @Override
+    public void onTrimMemory(final int level)
+    {
+        // Only an unused classifier is dropped; one that is on screen is worth its memory. Merely
+        // hiding the UI keeps it for the idle timeout, so coming back quickly doesn't reload it.
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN)
+        {
+            closeClassifier();
+        }
+    }
+
+    @Override
+    public void onLowMemory()
+    {
+        closeClassifier();
+    }
+
+    @Override
+    public void onConfigurationChanged(final Configuration newConfig) { }
+}
@@ -0,0 +1,155 @@
+package com.dogbreed.detector;
+
+import android.content.res.AssetManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds and warms up a {@link DogBreedClassifier} off the UI thread. YOLO and MobileNet are loaded
+ * in parallel on two background threads; the result is available through the returned future and is
+ * also delivered to a listener on the main thread.
+ */
+public class ClassifierLoader
+{
+    private static final Logger LOGGER = new Logger();
+
+    /** Receives the outcome of a load on the main thread. */
+    public interface Listener
+    {
+        void onClassifierReady(Classifier classifier);
+
+        void onClassifierFailed(Exception e);
+    }
+
+    private final AssetManager assetManager;
+    private final String modelFilename;
+    private final String labelFilename;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private ExecutorService executor;
+    private Future<Classifier> future;
+    private volatile boolean cancelled = false;
+
+    public ClassifierLoader(final AssetManager assetManager, final String modelFilename, final String labelFilename)
+    {
+        this.assetManager = assetManager;
+        this.modelFilename = modelFilename;
+        this.labelFilename = labelFilename;
+    }
+
+    /**
+     * Starts loading. Only the first call starts a load; later calls return the same future.
+     *
+     * @param listener called on the main thread once the classifier is ready or failed to load. May
+     *     be null.
+     */
+    public synchronized Future<Classifier> load(final Listener listener)
+    {
+        if (future != null)
+        {
+            return future;
+        }
+
+        executor = Executors.newFixedThreadPool(2, new LoaderThreadFactory());
+        future = executor.submit(new Callable<Classifier>()
+        {
+            @Override
+            public Classifier call() throws Exception
+            {
+                final long startTime = System.nanoTime();
+                final Classifier classifier;
+                try
+                {
+                    classifier = DogBreedClassifier.create(assetManager, modelFilename, labelFilename, executor);
+                }
+                catch (final Exception e)
+                {
+                    LOGGER.e(e, "Exception initializing classifier!");
+                    deliver(listener, null, e);
+                    throw e;
+                }
+                finally
+                {
+                    executor.shutdown();
+                }
+
+                LOGGER.i("Classifier ready in %d ms", (System.nanoTime() - startTime) / 1000000);
+                if (cancelled)
+                {
+                    classifier.close();
+                    return null;
+                }
+
+                deliver(listener, classifier, null);
+                return classifier;
+            }
+        });
+
+        return future;
+    }
+
+    /** Returns the future of the current load, or null if {@link #load} hasn't been called. */
+    public synchronized Future<Classifier> getFuture()
+    {
+        return future;
+    }
+
+    /**
+     * Abandons the load. A classifier that finishes loading afterwards is closed instead of being
+     * delivered.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    private void deliver(final Listener listener, final Classifier classifier, final Exception error)
+    {
+        if (listener == null)
+        {
+            return;
+        }
+
+        mainHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (cancelled)
+                {
+                    if (classifier != null) classifier.close();
+                    return;
+                }
+
+                if (classifier != null)
+                {
+                    listener.onClassifierReady(classifier);
+                }
+                else
+                {
+                    listener.onClassifierFailed(error);
+                }
+            }
+        });
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r)
+        {
+            final Thread thread = new Thread(r, "classifier-loader-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
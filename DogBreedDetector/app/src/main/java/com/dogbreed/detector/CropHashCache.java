@@ -0,0 +1,140 @@
+package com.dogbreed.detector;
+
+/**
+ * A small LRU cache of breed results keyed by a 64-bit perceptual hash of the crop they were
+ * classified from. A lookup also accepts entries whose hash differs in a few bits, so the same
+ * still dog, poster or statue hits the cache even with sensor noise between frames. Entries expire
+ * after a maximum age, taken from the timestamp of the result, so a crop is classified again now
+ * and then.
+ *
+ * <p>Entries live in parallel arrays and are scanned linearly, which for a few dozen entries is
+ * cheaper than any hashing structure. Hit, miss and eviction counts are kept for tuning the size.
+ */
+public class CropHashCache
+{
+    private final long[] hashes;
+    private final BreedResult[] results;
+    private final long[] lastUsed;
+    private final int maxDistance;
+    private final long maxAgeNs;
+    private int size = 0;
+    private long clock = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param capacity number of crops remembered.
+     * @param maxDistance largest number of differing hash bits that still counts as a hit.
+     * @param maxAgeMs how long a result is returned after it was classified.
+     */
+    public CropHashCache(final int capacity, final int maxDistance, final long maxAgeMs)
+    {
+        hashes = new long[capacity];
+        results = new BreedResult[capacity];
+        lastUsed = new long[capacity];
+        this.maxDistance = maxDistance;
+        this.maxAgeNs = maxAgeMs * 1000000L;
+    }
+
+    /**
+     * Returns the result of the closest cached crop within the distance that hasn't expired, or
+     * null.
+     *
+     * @param timestamp capture timestamp of the crop's frame, in nanoseconds.
+     */
+    public synchronized BreedResult get(final long hash, final long timestamp)
+    {
+        int best = -1;
+        int bestDistance = maxDistance + 1;
+        for (int i = 0; i < size; i++)
+        {
+            final long age = timestamp - results[i].getTimestamp();
+            if (age < 0 || age > maxAgeNs)
+            {
+                continue;
+            }
+
+            final int distance = Long.bitCount(hashes[i] ^ hash);
+            if (distance < bestDistance)
+            {
+                best = i;
+                bestDistance = distance;
+                if (distance == 0) break;
+            }
+        }
+
+        if (best < 0)
+        {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        lastUsed[best] = ++clock;
+        return results[best];
+    }
+
+    /**
+     * Stores a result, evicting the least recently used entry when full. The result's timestamp
+     * must be set.
+     */
+    public synchronized void put(final long hash, final BreedResult result)
+    {
+        int slot = -1;
+        for (int i = 0; i < size; i++)
+        {
+            if (hashes[i] == hash)
+            {
+                slot = i;
+                break;
+            }
+        }
+
+        if (slot < 0 && size < hashes.length)
+        {
+            slot = size++;
+        }
+        else if (slot < 0)
+        {
+            slot = 0;
+            for (int i = 1; i < size; i++)
+            {
+                if (lastUsed[i] < lastUsed[slot]) slot = i;
+            }
+
+            evictions++;
+        }
+
+        hashes[slot] = hash;
+        results[slot] = result;
+        lastUsed[slot] = ++clock;
+    }
+
+    public synchronized void clear()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            results[i] = null;
+        }
+
+        size = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,136 @@
+package com.dogbreed.detector;
+
+import java.util.Arrays;
+
+/**
+ * A reusable struct-of-arrays store for detection candidates. Decoding, non-maximum suppression and
+ * breed cropping all work on these parallel primitive arrays; {@link Classifier.Recognition} objects
+ * are only created for the few candidates that survive.
+ *
+ * <p>Boxes are stored as left, top, right and bottom edges in model input coordinates.
+ */
+public class DetectionCandidates
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private float[] left = new float[INITIAL_CAPACITY];
+    private float[] top = new float[INITIAL_CAPACITY];
+    private float[] right = new float[INITIAL_CAPACITY];
+    private float[] bottom = new float[INITIAL_CAPACITY];
+    private float[] score = new float[INITIAL_CAPACITY];
+    private int[] detectedClass = new int[INITIAL_CAPACITY];
+    private int[] trackId = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /** Appends a candidate without a track and returns its index. */
+    public int add(
+            final float left,
+            final float top,
+            final float right,
+            final float bottom,
+            final float score,
+            final int detectedClass)
+    {
+        if (size == this.left.length)
+        {
+            grow();
+        }
+
+        final int index = size++;
+        this.left[index] = left;
+        this.top[index] = top;
+        this.right[index] = right;
+        this.bottom[index] = bottom;
+        this.score[index] = score;
+        this.detectedClass[index] = detectedClass;
+        this.trackId[index] = -1;
+
+        return index;
+    }
+
+    /**
+     * Keeps only the candidates whose flag is set, preserving their order.
+     *
+     * @param keep one flag per candidate, at least {@link #size()} long.
+     */
+    public void retain(final boolean[] keep)
+    {
+        int kept = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (!keep[i])
+            {
+                continue;
+            }
+
+            if (kept != i)
+            {
+                left[kept] = left[i];
+                top[kept] = top[i];
+                right[kept] = right[i];
+                bottom[kept] = bottom[i];
+                score[kept] = score[i];
+                detectedClass[kept] = detectedClass[i];
+                trackId[kept] = trackId[i];
+            }
+
+            kept++;
+        }
+
+        size = kept;
+    }
+
+    public float getLeft(final int index) {
+        return left[index];
+    }
+
+    public float getTop(final int index) {
+        return top[index];
+    }
+
+    public float getRight(final int index) {
+        return right[index];
+    }
+
+    public float getBottom(final int index) {
+        return bottom[index];
+    }
+
+    public float getScore(final int index) {
+        return score[index];
+    }
+
+    public int getDetectedClass(final int index) {
+        return detectedClass[index];
+    }
+
+    public int getTrackId(final int index) {
+        return trackId[index];
+    }
+
+    public void setTrackId(final int index, final int trackId) {
+        this.trackId[index] = trackId;
+    }
+
+    private void grow()
+    {
+        final int capacity = left.length * 2;
+        left = Arrays.copyOf(left, capacity);
+        top = Arrays.copyOf(top, capacity);
+        right = Arrays.copyOf(right, capacity);
+        bottom = Arrays.copyOf(bottom, capacity);
+        score = Arrays.copyOf(score, capacity);
+        detectedClass = Arrays.copyOf(detectedClass, capacity);
+        trackId = Arrays.copyOf(trackId, capacity);
+    }
+}
@@ -1,28 +1,23 @@
 package com.dogbreed.detector;
 
 
-import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.media.ImageReader.OnImageAvailableListener;
-import android.util.Log;
 import android.util.Size;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.widget.Toast;
 
-import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
- * An activity that uses a TensorFlowMultiBoxDetector and ObjectTracker to detect and then track
- * objects.
+ * An activity that uses a YOLO detector and MobileNet classifier to detect dogs and their breeds,
+ * and a {@link MultiBoxTracker} with optical flow to track them between detections. The overlay is
+ * redrawn on every display frame, with the boxes extrapolated to the time the frame is shown.
  */
 public class DetectorActivity extends CameraActivity implements OnImageAvailableListener {
 
@@ -32,7 +27,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     private static final int TF_OD_API_INPUT_SIZE = 416;
     private static final String TF_OD_API_MODEL_FILE = "yolov4-416-fp32.tflite";
-    private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/coco.txt";
+    private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/labels.bin";
 
     private static final boolean MAINTAIN_ASPECT = false;
     private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
@@ -41,22 +36,111 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     OverlayView trackingOverlay;
     private Integer sensorOrientation;
 
-    private Classifier detector;
+    // Set on the main thread once the shared classifier has been loaded and warmed up.
+    private volatile Classifier detector;
+    private boolean holdsClassifier = false;
 
-    private Bitmap rgbFrameBitmap = null;
-    private Bitmap croppedBitmap = null;
-    private Bitmap cropCopyBitmap = null;
+    private final ClassifierLoader.Listener classifierListener =
+            new ClassifierLoader.Listener()
+            {
+                @Override
+                public void onClassifierReady(final Classifier classifier)
+                {
+                    detector = classifier;
+                    startPipeline();
+                }
+
+                @Override
+                public void onClassifierFailed(final Exception e)
+                {
+                    Toast toast =
+                            Toast.makeText(
+                                    getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
+                    toast.show();
+                    finish();
+                }
+            };
+
+    // Depth of the queue in front of each pipeline stage. One frame waiting per stage keeps every
+    // stage busy without adding latency.
+    private static final int PIPELINE_QUEUE_DEPTH = 1;
+
+    private volatile FramePipeline pipeline;
 
-    private boolean computingDetection = false;
+    // Detection only runs when a block of the scene changed by more than this mean luma difference,
+    // or when the last detection is older than the staleness interval.
+    private static final float MOTION_THRESHOLD = 6.0f;
+    private static final long MAX_DETECTION_STALENESS_MS = 2000;
 
-    private long timestamp = 0;
+    // Between detections the tracker moves the boxes with optical flow; it asks for a detection at
+    // least this often, in camera frames.
+    private static final int DETECTION_INTERVAL_FRAMES = 5;
 
     private Matrix frameToCropTransform;
     private Matrix cropToFrameTransform;
 
     private MultiBoxTracker tracker;
+    // Recognitions handed to the tracker, reused by every frame on the publish thread.
+    private final ArrayList<Classifier.Recognition> mappedRecognitions = new ArrayList<>();
     private BorderedText borderedText;
 
+    // Redraws the overlay on every vsync while there are boxes, and stops once there are none. The
+    // tracker restarts it when boxes change. renderingResumed is only touched on the main thread.
+    private volatile long renderTimeNanos = 0;
+    private volatile boolean rendering = false;
+    private boolean renderingResumed = false;
+    // Registered once, however often the camera is reopened; it draws whichever tracker is current.
+    private final OverlayView.DrawCallback overlayCallback =
+            new OverlayView.DrawCallback()
+            {
+                @Override
+                public void drawCallback(final Canvas canvas)
+                {
+                    tracker.draw(canvas, renderTimeNanos);
+                }
+            };
+    private final Choreographer.FrameCallback renderCallback =
+            new Choreographer.FrameCallback()
+            {
+                @Override
+                public void doFrame(final long frameTimeNanos)
+                {
+                    // Cleared before asking the tracker, so that an update in between either
+                    // shows up in needsRedraw or sees the loop stopped and restarts it.
+                    rendering = false;
+                    if (!renderingResumed || !tracker.needsRedraw())
+                    {
+                        return;
+                    }
+
+                    rendering = true;
+                    renderTimeNanos = frameTimeNanos;
+                    trackingOverlay.invalidate();
+                    Choreographer.getInstance().postFrameCallback(this);
+                }
+            };
+    private final Runnable startRenderingTask =
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    startRendering();
+                }
+            };
+    private final MultiBoxTracker.Listener trackerListener =
+            new MultiBoxTracker.Listener()
+            {
+                @Override
+                public void onTracksUpdated()
+                {
+                    if (!rendering)
+                    {
+                        trackingOverlay.post(startRenderingTask);
+                    }
+                }
+            };
+
     @Override
     public void onPreviewSizeChosen(final Size size, final int rotation)
     {
@@ -71,20 +155,11 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
         int cropSize = TF_OD_API_INPUT_SIZE;
 
-        try
+        // The camera is reopened on every resume; the classifier is only acquired once per pause.
+        if (!holdsClassifier)
         {
-            detector = DogBreedClassifier.create(getAssets(), TF_OD_API_MODEL_FILE, TF_OD_API_LABELS_FILE);
-            cropSize = TF_OD_API_INPUT_SIZE;
-        }
-        catch (final IOException e)
-        {
-            e.printStackTrace();
-            LOGGER.e(e, "Exception initializing classifier!");
-            Toast toast =
-                    Toast.makeText(
-                            getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-            toast.show();
-            finish();
+            holdsClassifier = true;
+            ClassifierHolder.getInstance(this).acquire(TF_OD_API_MODEL_FILE, TF_OD_API_LABELS_FILE, classifierListener);
         }
 
         previewWidth = size.getWidth();
@@ -94,8 +169,6 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
 
         LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-        croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
 
         frameToCropTransform =
                 ImageUtils.getTransformationMatrix(
@@ -107,87 +180,120 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         frameToCropTransform.invert(cropToFrameTransform);
 
         trackingOverlay = (OverlayView) findViewById(R.id.overlayView);
-        trackingOverlay.addCallback(
-                new OverlayView.DrawCallback()
-                {
-                    @Override
-                    public void drawCallback(final Canvas canvas)
-                    {
-                        tracker.draw(canvas);
-                    }
-                });
+        trackingOverlay.addCallback(overlayCallback);
 
         tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+        tracker.setDetectionInterval(DETECTION_INTERVAL_FRAMES);
+        tracker.setFrameClock(getFrameClock());
+        tracker.setListener(trackerListener);
 
+        renderingResumed = true;
+        startPipeline();
+        startRendering();
     }
 
-    @Override
-    protected void processImage()
+    private void startRendering()
     {
-        ++timestamp;
-        final long currTimestamp = timestamp;
-        trackingOverlay.postInvalidate();
-
-        // No mutex needed as this method is not reentrant.
-        if (computingDetection)
+        if (renderingResumed && !rendering)
         {
-            readyForNextImage();
-            return;
+            rendering = true;
+            Choreographer.getInstance().postFrameCallback(renderCallback);
         }
+    }
 
-        computingDetection = true;
-        LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
-
-        rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
-
-        readyForNextImage();
-
-        final Canvas canvas = new Canvas(croppedBitmap);
-        canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
-
-        runInBackground(
-                new Runnable()
-                {
-                    @Override
-                    public void run()
-                    {
-                        LOGGER.i("Running detection on image " + currTimestamp);
-
-                        final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
-
-                        Log.e("CHECK", "run: " + results.size());
-
-                        cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-                        final Canvas canvas = new Canvas(cropCopyBitmap);
-                        final Paint paint = new Paint();
-                        paint.setColor(Color.RED);
-                        paint.setStyle(Style.STROKE);
-                        paint.setStrokeWidth(2.0f);
+    private void stopRendering()
+    {
+        renderingResumed = false;
+        rendering = false;
+        Choreographer.getInstance().removeFrameCallback(renderCallback);
+    }
 
-                        final List<Classifier.Recognition> mappedRecognitions =
-                                new LinkedList<Classifier.Recognition>();
+    /** Starts the pipeline once both the classifier and the frame geometry are known. */
+    private void startPipeline()
+    {
+        if (pipeline != null || detector == null || cropToFrameTransform == null)
+        {
+            return;
+        }
 
-                        for (final Classifier.Recognition result : results)
+        final FramePipeline framePipeline =
+                new FramePipeline(
+                        detector,
+                        getFrameMailbox(),
+                        cropToFrameTransform,
+                        new FramePipeline.Listener()
                         {
-                            final RectF location = result.getLocation();
-                            if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_SCORE)
+                            @Override
+                            public void onResults(
+                                    final List<Classifier.Recognition> results, final long frameIndex, final long timestamp)
                             {
-                                canvas.drawRect(location, paint);
+                                publishResults(results, timestamp);
+                            }
+                        });
+
+        // Frames for detection are dropped rather than waited for while YOLO is busy, so the convert
+        // thread keeps taking frames and the tracker follows every one of them.
+        framePipeline.setQueue(FramePipeline.STAGE_DETECT, PIPELINE_QUEUE_DEPTH, FramePipeline.DropPolicy.DROP);
+        framePipeline.setQueue(FramePipeline.STAGE_CLASSIFY, PIPELINE_QUEUE_DEPTH, FramePipeline.DropPolicy.BLOCK);
+        framePipeline.setQueue(FramePipeline.STAGE_PUBLISH, PIPELINE_QUEUE_DEPTH, FramePipeline.DropPolicy.BLOCK);
+        framePipeline.setMotionDetector(new MotionDetector(MOTION_THRESHOLD, MAX_DETECTION_STALENESS_MS));
+        framePipeline.setFrameTracker(tracker);
+        framePipeline.setBreedCache(tracker);
+        framePipeline.start();
+        pipeline = framePipeline;
+    }
 
-                                cropToFrameTransform.mapRect(location);
+    private void stopPipeline()
+    {
+        final FramePipeline framePipeline = pipeline;
+        pipeline = null;
+        if (framePipeline != null)
+        {
+            framePipeline.stop();
+        }
+    }
 
-                                result.setLocation(location);
-                                mappedRecognitions.add(result);
-                            }
-                        }
+    @Override
+    protected void processImage()
+    {
+        // The pipeline picks the newest image up from the frame mailbox by itself; frames that
+        // arrive while it is busy replace each other there. The render loop redraws the overlay.
+    }
 
-                        //need to actually make this draw rectangles
-                        tracker.trackResults(mappedRecognitions, currTimestamp);
-                        trackingOverlay.postInvalidate();
+    /** Called on the pipeline's publish thread with the recognitions of one frame. */
+    private void publishResults(final List<Classifier.Recognition> results, final long timestamp)
+    {
+        mappedRecognitions.clear();
+        for (int i = 0; i < results.size(); i++)
+        {
+            final Classifier.Recognition result = results.get(i);
+            final RectF location = result.peekLocation();
+            if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_SCORE)
+            {
+                // Each result is published once, so its location is mapped in place.
+                cropToFrameTransform.mapRect(location);
+                mappedRecognitions.add(result);
+            }
+        }
 
-                        computingDetection = false;
-                    }
-                });
+        tracker.trackResults(mappedRecognitions, timestamp);
+    }
+
+    @Override
+    public synchronized void onPause()
+    {
+        // Joins the pipeline and inference threads, after which nothing here uses the detector
+        // anymore.
+        stopPipeline();
+        stopRendering();
+        super.onPause();
+
+        if (holdsClassifier)
+        {
+            holdsClassifier = false;
+            detector = null;
+            ClassifierHolder.getInstance(this).release(classifierListener);
+        }
     }
 
     @Override
@@ -202,15 +308,41 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         return DESIRED_PREVIEW_SIZE;
     }
 
+    @Override
+    protected int getMaxHeldImages()
+    {
+        return FramePipeline.getMaxHeldImages(PIPELINE_QUEUE_DEPTH, PIPELINE_QUEUE_DEPTH);
+    }
+
     @Override
     protected void setUseNNAPI(final boolean isChecked)
     {
-        runInBackground(() -> detector.setUseNNAPI(isChecked));
+        reconfigureClassifier(() -> detector.setUseNNAPI(isChecked));
     }
 
     @Override
     protected void setNumThreads(final int numThreads)
     {
-        runInBackground(() -> detector.setNumThreads(numThreads));
+        reconfigureClassifier(() -> detector.setNumThreads(numThreads));
+    }
+
+    /**
+     * Applies a classifier setting on the main thread. The pipeline's detect and classify threads
+     * run the interpreters, so it is stopped while the setting changes and started again after.
+     */
+    private void reconfigureClassifier(final Runnable change)
+    {
+        if (detector == null)
+        {
+            return;
+        }
+
+        final boolean wasRunning = pipeline != null;
+        stopPipeline();
+        change.run();
+        if (wasRunning)
+        {
+            startPipeline();
+        }
     }
 }
\ No newline at end of file
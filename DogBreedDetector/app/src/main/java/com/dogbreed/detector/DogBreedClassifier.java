@@ -2,25 +2,22 @@ package com.dogbreed.detector;
 
 import android.content.res.AssetManager;
 
-import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.RectF;
 
 import android.os.Build;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.gpu.GpuDelegate;
@@ -30,9 +27,6 @@ public class DogBreedClassifier implements Classifier
 {
     private static final Logger LOGGER = new Logger();
 
-    private static HashMap<Integer, String> indexToCode = new HashMap<Integer, String>();
-    private static HashMap<String, String> codesToHuman = new HashMap<String, String>();
-
     // Number of threads in the java app
     private static final int NUM_THREADS = 4;
     private static boolean isNNAPI = false;
@@ -40,30 +34,118 @@ public class DogBreedClassifier implements Classifier
 
     // config yolov4 tiny
     private static final int INPUT_SIZE = 416;
-    private static final int[] OUTPUT_WIDTH_TINY = new int[]{2535, 2535};
+    private static final int OUTPUT_BOXES = 0;
+    private static final int OUTPUT_SCORES = 1;
 
-    // Pre-allocated buffers.
-    private Vector<String> labels = new Vector<String>();
+    // config mobilenet
+    private static final String MOBILENET_MODEL_FILE = "v3_float.tflite";
+    private static final int MOBILENET_INPUT_SIZE = 224;
+    // Dogs classified in a single MobileNet invocation.
+    private static final int MAX_BREED_BATCH_SIZE = 8;
+    // Breeds reported per dog.
+    private static final int TOP_K_BREEDS = 3;
+
+    private static final int[] YOLO_INPUT_SHAPE = { 1, INPUT_SIZE, INPUT_SIZE, 3 };
 
-    private ByteBuffer imgData;
+    // Pre-allocated buffers.
+    private LabelBundle labels;
+
+    private final TensorBufferPool tensorBufferPool = new TensorBufferPool();
+
+    // The YOLO input is converted in row bands; one core is left for the camera and UI threads.
+    private final RowBandExecutor rowBandExecutor =
+            new RowBandExecutor(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+    private final YuvToTensorConverter yuvToTensorConverter = new YuvToTensorConverter(INPUT_SIZE, rowBandExecutor);
+    private final FrameCropper frameCropper = new FrameCropper(MOBILENET_INPUT_SIZE);
+    // Classify stage scratch: candidates that need MobileNet, and a box for breed cache lookups.
+    private int[] pendingCandidates = new int[16];
+    private final RectF lookupBox = new RectF();
+    // Candidates and crop hashes of the MobileNet batch being packed.
+    private final int[] batchCandidates = new int[MAX_BREED_BATCH_SIZE];
+    private final long[] batchHashes = new long[MAX_BREED_BATCH_SIZE];
+
+    // Breeds of recently classified crops, keyed by crop hash. A crop within CROP_HASH_DISTANCE
+    // bits of a cached one is not classified again until the entry is CROP_CACHE_MAX_AGE_MS old,
+    // which matches the tracker's breed refresh so that a refresh really runs MobileNet. Crops
+    // without any breed above the threshold aren't cached, so the dog gets another chance.
+    private static final int CROP_CACHE_SIZE = 64;
+    private static final int CROP_HASH_DISTANCE = 4;
+    private static final long CROP_CACHE_MAX_AGE_MS = 3000;
+    private final CropHashCache cropCache = new CropHashCache(CROP_CACHE_SIZE, CROP_HASH_DISTANCE, CROP_CACHE_MAX_AGE_MS);
 
     private Interpreter yoloIdentifier;
-    private Interpreter mobileNetLite;
+    private GpuDelegate gpuDelegate;
+    private BatchInterpreterCache mobileNetLite;
+    private BreedIndex breedIndex;
+
+    // YOLO outputs, bound to the interpreter once and overwritten by every invocation.
+    private final Object[] yoloInputs = new Object[1];
+    private final Map<Integer, Object> yoloOutputs = new HashMap<>();
+    private TensorBuffer yoloBoxes;
+    private TensorBuffer yoloScores;
+    private int numCandidates;
+    private YoloDecoder yoloDecoder;
+
+    // Candidate store shared by decoding, non maximum suppression and breed cropping.
+    private final DetectionCandidates candidates = new DetectionCandidates();
+    private final NonMaxSuppressor nonMaxSuppressor = new NonMaxSuppressor(NMS_THRESHOLD);
 
-    private static ArrayList<Integer> possibleDetectionClasses = new ArrayList<>();
     private final static int[] POSSIBLE_DOG_CLASSES_ARRAY = { 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 77 };
 
+    // non maximum suppression
+    private static final float NMS_THRESHOLD = 0.25f;
+    // Suppress across all dog-like classes, so an animal scored as both dog and cat is classified once.
+    private static final boolean CLASS_AGNOSTIC_NMS = true;
+
     //Class constructor
-    private DogBreedClassifier() { }
+    private DogBreedClassifier()
+    {
+        if (CLASS_AGNOSTIC_NMS)
+        {
+            nonMaxSuppressor.setMergedClasses(POSSIBLE_DOG_CLASSES_ARRAY);
+        }
+    }
 
     public static Classifier create(
             final AssetManager assetManager,
             final String modelFilename,
             final String labelFilename)
             throws IOException
+    {
+        return create(assetManager, modelFilename, labelFilename, null);
+    }
+
+    /**
+     * Builds the classifier and runs one warm-up inference on each model, so the first camera frame
+     * doesn't pay for delegate compilation and tensor allocation.
+     *
+     * @param executor if not null, MobileNet is built and warmed up on it while YOLO is built on the
+     *     calling thread.
+     */
+    public static Classifier create(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final String labelFilename,
+            final ExecutorService executor)
+            throws IOException
     {
         final DogBreedClassifier dogBreedClassifier = new DogBreedClassifier();
 
+        // MobileNet gets its own options: its batch interpreters must not pick up the GPU delegate
+        // that is added for YOLO below.
+        final Callable<BatchInterpreterCache> mobileNetLoader = new Callable<BatchInterpreterCache>()
+        {
+            @Override
+            public BatchInterpreterCache call() throws IOException
+            {
+                final BatchInterpreterCache mobileNet = new BatchInterpreterCache(
+                        Utils.loadModelFile(assetManager, MOBILENET_MODEL_FILE), createOptions(), MAX_BREED_BATCH_SIZE);
+                dogBreedClassifier.warmUpMobileNet(mobileNet);
+                return mobileNet;
+            }
+        };
+        final Future<BatchInterpreterCache> mobileNetFuture = executor != null ? executor.submit(mobileNetLoader) : null;
+
         final String[] splitName = labelFilename.split("file:///android_asset/");
         String actualFilename = "";
         if (splitName.length > 1)
@@ -71,424 +153,423 @@ public class DogBreedClassifier implements Classifier
             actualFilename = splitName[1];
         }
 
-        InputStream labelsInput = assetManager.open(actualFilename);
-        BufferedReader br = new BufferedReader(new InputStreamReader(labelsInput));
-        String line;
-        while ((line = br.readLine()) != null)
-        {
-            LOGGER.w(line);
-            dogBreedClassifier.labels.add(line);
-        }
-
-        br.close();
-
         try
         {
-            Interpreter.Options options = (new Interpreter.Options());
-            options.setNumThreads(NUM_THREADS);
-            if (isNNAPI) {
-                NnApiDelegate nnApiDelegate = null;
-                // Initialize interpreter with NNAPI delegate for Android Pie or above
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                    nnApiDelegate = new NnApiDelegate();
-                    options.addDelegate(nnApiDelegate);
-                    options.setNumThreads(NUM_THREADS);
-                    options.setUseNNAPI(false);
-                    options.setAllowFp16PrecisionForFp32(true);
-                    options.setAllowBufferHandleOutput(true);
-                    options.setUseNNAPI(true);
-                }
-            }
-
-            dogBreedClassifier.mobileNetLite = new Interpreter(Utils.loadModelFile(assetManager,"v3_float.tflite"), options);
+            dogBreedClassifier.labels = LabelBundle.load(assetManager, actualFilename);
+            dogBreedClassifier.breedIndex = new BreedIndex(dogBreedClassifier.labels);
 
+            Interpreter.Options options = createOptions();
             if (isGPU) {
-                GpuDelegate gpuDelegate = new GpuDelegate();
-                options.addDelegate(gpuDelegate);
+                dogBreedClassifier.gpuDelegate = new GpuDelegate();
+                options.addDelegate(dogBreedClassifier.gpuDelegate);
             }
 
             dogBreedClassifier.yoloIdentifier = new Interpreter(Utils.loadModelFile(assetManager, modelFilename), options);
+            dogBreedClassifier.bindYoloOutputs();
+            dogBreedClassifier.warmUpYolo();
 
-            // Pre-allocate buffers.
-            final int numBytesPerChannel = 4;
-            dogBreedClassifier.imgData = ByteBuffer.allocateDirect(1 * dogBreedClassifier.INPUT_SIZE * dogBreedClassifier.INPUT_SIZE * 3 * numBytesPerChannel);
-            dogBreedClassifier.imgData.order(ByteOrder.nativeOrder());
-
-            possibleDetectionClasses = FillPossibleClassesList();
+            dogBreedClassifier.mobileNetLite = mobileNetFuture != null ? mobileNetFuture.get() : mobileNetLoader.call();
         }
         catch (Exception e)
         {
+            dogBreedClassifier.close();
+            closeWhenDone(mobileNetFuture);
+            if (e instanceof IOException)
+            {
+                throw (IOException) e;
+            }
+
             throw new RuntimeException(e);
         }
 
-        InitializeMap(assetManager);
-
         return dogBreedClassifier;
     }
 
-    private static ArrayList<Integer> FillPossibleClassesList()
+    /** Closes the MobileNet interpreters of a failed load once their build has finished. */
+    private static void closeWhenDone(final Future<BatchInterpreterCache> mobileNetFuture)
     {
-        ArrayList<Integer> allClasses = new ArrayList<>();
-        for (int number : POSSIBLE_DOG_CLASSES_ARRAY)
+        if (mobileNetFuture == null)
         {
-            allClasses.add(new Integer(number));
+            return;
         }
 
-        return  allClasses;
-    }
-
-    private static void InitializeMap(AssetManager assets)
-    {
-        ReadCodesFile(assets);
-        FillCodesWithValues(assets);
+        try
+        {
+            mobileNetFuture.get().close();
+        }
+        catch (Exception e)
+        {
+            // The build failed as well, there is nothing to close.
+        }
     }
 
-    private static ArrayList<String> getDogCodesFromFile(AssetManager assets)
+    /** Runs YOLO once on a blank input; this also leaves the input buffer in the pool. */
+    private void warmUpYolo()
     {
-        ArrayList<String> dogCodes = new ArrayList<>();
-        BufferedReader reader = null;
+        final TensorBuffer inputBuffer = tensorBufferPool.acquire(YOLO_INPUT_SHAPE);
         try
         {
-            reader = new BufferedReader(new InputStreamReader(assets.open("dog_codes.txt")));
-            String mLine;
-            while ((mLine = reader.readLine()) != null)
-            {
-                dogCodes.add(mLine.trim());
-            }
+            getDetectionsForTiny(inputBuffer.getBuffer(), candidates);
+            candidates.clear();
         }
-        catch (IOException e) {
-            //log the exception
+        finally
+        {
+            tensorBufferPool.release(inputBuffer);
         }
-
-        return dogCodes;
     }
 
-    private static void FillCodesWithValues(AssetManager assets)
+    /**
+     * Runs MobileNet once on blank crops at every batch size classification uses, so that none of
+     * the batch interpreters is built on the classify thread when several dogs first show up. This
+     * also leaves the crop buffer and every output buffer in the pool.
+     */
+    private void warmUpMobileNet(final BatchInterpreterCache mobileNet)
     {
-        ArrayList<String> onlyDogCodes = getDogCodesFromFile(assets);
-        BufferedReader reader = null;
+        final int maxBatchSize = mobileNet.getMaxBatchSize();
+        final TensorBuffer inputBuffer = tensorBufferPool.acquire(mobileNet.getInputShape(maxBatchSize));
         try
         {
-            reader = new BufferedReader(new InputStreamReader(assets.open("dog_code_names.txt")));
-            String mLine;
-            while ((mLine = reader.readLine()) != null)
+            for (int batchSize = 1; batchSize <= maxBatchSize; batchSize *= 2)
             {
-                String[] codeAndName = mLine.trim().split("\t");
-                if(codeAndName.length >= 2 && onlyDogCodes.contains(codeAndName[0]))
+                final TensorBuffer outputBuffer = tensorBufferPool.acquire(mobileNet.getOutputShape(batchSize));
+                try
+                {
+                    mobileNet.getInterpreter(batchSize).run(inputBuffer.getLeadingBuffer(batchSize), outputBuffer.getBuffer());
+                }
+                finally
                 {
-                    codesToHuman.put(codeAndName[0], codeAndName[1]);
+                    tensorBufferPool.release(outputBuffer);
                 }
             }
         }
-        catch (IOException e) {
-            //log the exception
-        }
         finally
         {
-            if (reader != null)
-            {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    //log the exception
-                }
-            }
+            tensorBufferPool.release(inputBuffer);
         }
     }
 
-    private static void ReadCodesFile(AssetManager assets)
+    /**
+     * Allocates the YOLO output buffers from the shapes the model declares: boxes are
+     * {@code [1, candidates, 4]} and scores {@code [1, candidates, classes]}.
+     */
+    private void bindYoloOutputs()
     {
-        BufferedReader reader = null;
-        try
-        {
-            reader = new BufferedReader(
-                    new InputStreamReader(assets.open("codes.txt")));
-
-            String mLine;
-            int index = 1;
-            while ((mLine = reader.readLine()) != null) {
-                //process line
-                mLine.trim();
-                indexToCode.put(index, mLine);
-                index++;
-            }
-        }
-        catch (IOException e) {
-            //log the exception
-        }
-        finally
-        {
-            if (reader != null)
-            {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    //log the exception
-                }
+        final int[] boxesShape = yoloIdentifier.getOutputTensor(OUTPUT_BOXES).shape();
+        final int[] scoresShape = yoloIdentifier.getOutputTensor(OUTPUT_SCORES).shape();
+        numCandidates = boxesShape[1];
+        yoloDecoder = new YoloDecoder(POSSIBLE_DOG_CLASSES_ARRAY, scoresShape[2], INPUT_SIZE);
+
+        yoloBoxes = tensorBufferPool.acquire(boxesShape);
+        yoloScores = tensorBufferPool.acquire(scoresShape);
+        yoloOutputs.put(OUTPUT_BOXES, yoloBoxes.getBuffer());
+        yoloOutputs.put(OUTPUT_SCORES, yoloScores.getBuffer());
+    }
+
+    private static Interpreter.Options createOptions()
+    {
+        Interpreter.Options options = (new Interpreter.Options());
+        options.setNumThreads(NUM_THREADS);
+        if (isNNAPI) {
+            NnApiDelegate nnApiDelegate = null;
+            // Initialize interpreter with NNAPI delegate for Android Pie or above
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                nnApiDelegate = new NnApiDelegate();
+                options.addDelegate(nnApiDelegate);
+                options.setNumThreads(NUM_THREADS);
+                options.setUseNNAPI(false);
+                options.setAllowFp16PrecisionForFp32(true);
+                options.setAllowBufferHandleOutput(true);
+                options.setUseNNAPI(true);
             }
         }
+
+        return options;
     }
 
+    /** Must not be called while another thread runs the classifier. */
     public void setNumThreads(int num_threads)
     {
         if (yoloIdentifier != null) yoloIdentifier.setNumThreads(num_threads);
+        if (mobileNetLite != null) mobileNetLite.setNumThreads(num_threads);
     }
 
+    /** Must not be called while another thread runs the classifier. */
     @Override
     public void setUseNNAPI(boolean isChecked)
     {
         if (yoloIdentifier != null) yoloIdentifier.setUseNNAPI(isChecked);
     }
 
-    @Override
-    public float getObjThresh()
+    /** Returns the cache of crop classifications, for its hit, miss and eviction counts. */
+    public CropHashCache getCropCache()
     {
-        return DetectorActivity.MINIMUM_CONFIDENCE_SCORE;
+        return cropCache;
     }
 
-    //non maximum suppression
-    protected ArrayList<Recognition> nms(final ArrayList<Recognition> list)
+    @Override
+    public void close()
     {
-        ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-        for (int k = 0; k < labels.size(); k++)
+        if (yoloIdentifier != null)
         {
-            //1.find max confidence per class
-            PriorityQueue<Recognition> pq =
-                    new PriorityQueue<Recognition>(
-                            50,
-                            new Comparator<Recognition>()
-                            {
-                                @Override
-                                public int compare(final Recognition lhs, final Recognition rhs)
-                                {
-                                    // Intentionally reversed to put high confidence at the head of the queue.
-                                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                                }
-                            });
-
-            for (int i = 0; i < list.size(); ++i)
-            {
-                if (list.get(i).getDetectedClass() == k)
-                {
-                    pq.add(list.get(i));
-                }
-            }
+            yoloIdentifier.close();
+            yoloIdentifier = null;
+        }
 
-            //2.do non maximum suppression
-            while (pq.size() > 0)
-            {
-                //insert detection with max confidence
-                Recognition[] a = new Recognition[pq.size()];
-                Recognition[] detections = pq.toArray(a);
-                Recognition max = detections[0];
-                nmsList.add(max);
-                pq.clear();
-
-                for (int j = 1; j < detections.length; j++)
-                {
-                    Recognition detection = detections[j];
-                    RectF b = detection.getLocation();
-                    if (box_iou(max.getLocation(), b) < mNmsThresh)
-                    {
-                        pq.add(detection);
-                    }
-                }
-            }
+        if (gpuDelegate != null)
+        {
+            gpuDelegate.close();
+            gpuDelegate = null;
         }
 
-        return nmsList;
-    }
+        if (mobileNetLite != null)
+        {
+            mobileNetLite.close();
+            mobileNetLite = null;
+        }
 
-    protected float mNmsThresh = 0.25f;
+        cropCache.clear();
+        rowBandExecutor.close();
 
-    protected float box_iou(RectF a, RectF b) {
-        return box_intersection(a, b) / box_union(a, b);
+        tensorBufferPool.clear();
     }
 
-    protected float box_intersection(RectF a, RectF b)
+    @Override
+    public float getObjThresh()
     {
-        float w = overlap((a.left + a.right) / 2, a.right - a.left,
-                (b.left + b.right) / 2, b.right - b.left);
-        float h = overlap((a.top + a.bottom) / 2, a.bottom - a.top,
-                (b.top + b.bottom) / 2, b.bottom - b.top);
-        if (w < 0 || h < 0) return 0;
-        float area = w * h;
-
-        return area;
+        return DetectorActivity.MINIMUM_CONFIDENCE_SCORE;
     }
 
-    protected float box_union(RectF a, RectF b)
+    private void getDetectionsForTiny(ByteBuffer byteBuffer, DetectionCandidates candidates)
     {
-        float i = box_intersection(a, b);
-        float u = (a.right - a.left) * (a.bottom - a.top) + (b.right - b.left) * (b.bottom - b.top) - i;
+        yoloInputs[0] = byteBuffer;
+        // The interpreter writes outputs from the buffers' current position, so rewind them.
+        yoloBoxes.getBuffer();
+        yoloScores.getBuffer();
+        try
+        {
+            yoloIdentifier.runForMultipleInputsOutputs(yoloInputs, yoloOutputs);
+        }
+        catch (Exception ex)
+        {
+            LOGGER.e(ex, "YOLO inference failed");
+            candidates.clear();
+            return;
+        }
+        finally
+        {
+            yoloInputs[0] = null;
+        }
 
-        return u;
+        yoloDecoder.decode(yoloBoxes.getFloats(), yoloScores.getFloats(), numCandidates, getObjThresh(), candidates);
     }
 
-    protected float overlap(float x1, float w1, float x2, float w2)
-    {
-        float l1 = x1 - w1 / 2;
-        float l2 = x2 - w2 / 2;
-        float left = l1 > l2 ? l1 : l2;
-        float r1 = x1 + w1 / 2;
-        float r2 = x2 + w2 / 2;
-        float right = r1 < r2 ? r1 : r2;
-
-        return right - left;
-    }
-
-    protected static final int BATCH_SIZE = 1;
-    protected static final int PIXEL_SIZE = 3;
-
-    /**
-     * Writes Image data into a {@code ByteBuffer}.
-     */
-    protected ByteBuffer convertBitmapToByteBuffer(Bitmap bitmap, int inputSize)
+    @Override
+    public ArrayList<Recognition> recognizeImage(YuvFrame frame, Matrix cropToFrameTransform)
     {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * BATCH_SIZE * inputSize * inputSize * PIXEL_SIZE);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        int[] intValues = new int[inputSize * inputSize];
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        int pixel = 0;
-        for (int i = 0; i < inputSize; ++i)
+        final TensorBuffer inputBuffer = convert(frame, cropToFrameTransform);
+        try
         {
-            for (int j = 0; j < inputSize; ++j)
-            {
-                final int val = intValues[pixel++];
-                byteBuffer.putFloat(((val >> 16) & 0xFF) / 255.0f);
-                byteBuffer.putFloat(((val >> 8) & 0xFF) / 255.0f);
-                byteBuffer.putFloat((val & 0xFF) / 255.0f);
-            }
+            detect(inputBuffer, candidates);
+        }
+        finally
+        {
+            releaseInput(inputBuffer);
         }
 
-        return byteBuffer;
+        return classify(candidates, frame, cropToFrameTransform, null);
     }
 
-    private ArrayList<Recognition> getDetectionsForTiny(ByteBuffer byteBuffer, Bitmap bitmap)
+    // The pipeline stages below run on different threads at the same time. Each only touches its own
+    // converter, interpreter and scratch buffers; the buffer pool is shared and synchronized.
+
+    @Override
+    public TensorBuffer convert(YuvFrame frame, Matrix cropToFrameTransform)
     {
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
-        Map<Integer, Object> outputMap = new HashMap<>();
-        outputMap.put(0, new float[1][OUTPUT_WIDTH_TINY[0]][4]);
-        outputMap.put(1, new float[1][OUTPUT_WIDTH_TINY[1]][labels.size()]);
-        Object[] inputArray = {byteBuffer};
+        final TensorBuffer inputBuffer = tensorBufferPool.acquire(YOLO_INPUT_SHAPE);
         try
         {
-            yoloIdentifier.runForMultipleInputsOutputs(inputArray, outputMap);
+            yuvToTensorConverter.setTransform(cropToFrameTransform);
+            yuvToTensorConverter.convert(frame, inputBuffer.getFloats());
         }
-        catch (Exception ex)
+        catch (RuntimeException e)
         {
-            String msg = ex.getMessage();
+            tensorBufferPool.release(inputBuffer);
+            throw e;
         }
 
+        return inputBuffer;
+    }
+
+    @Override
+    public void detect(TensorBuffer input, DetectionCandidates candidates)
+    {
+        getDetectionsForTiny(input.getBuffer(), candidates);
+        nonMaxSuppressor.apply(candidates);
+    }
+
+    @Override
+    public ArrayList<Recognition> classify(
+            DetectionCandidates candidates, YuvFrame frame, Matrix cropToFrameTransform, BreedCache breedCache)
+    {
+        return getDogBreedBoxes(candidates, frame, cropToFrameTransform, breedCache);
+    }
+
+    @Override
+    public void releaseInput(TensorBuffer input)
+    {
+        tensorBufferPool.release(input);
+    }
 
-        int gridWidth = OUTPUT_WIDTH_TINY[0];
-        float[][][] bboxes = (float [][][]) outputMap.get(0);
-        float[][][] out_score = (float[][][]) outputMap.get(1);
+    private ArrayList<Recognition> getDogBreedBoxes(
+            DetectionCandidates candidates, YuvFrame frame, Matrix cropToFrameTransform, BreedCache breedCache)
+    {
+        ArrayList<Recognition> dogBreedBoxes = new ArrayList<>();
+        if (candidates.size() == 0)
+        {
+            return dogBreedBoxes;
+        }
 
-        for (int i = 0; i < gridWidth;i++)
+        // Dogs the cache still knows keep their breed; only the others go through MobileNet.
+        if (pendingCandidates.length < candidates.size())
         {
-            float maxClass = 0;
-            int detectedClass = -1;
-            final float[] classes = new float[labels.size()];
-            for (int c = 0; c < labels.size(); c++)
-            {
-                classes [c] = out_score[0][i][c];
-            }
+            pendingCandidates = new int[candidates.size() * 2];
+        }
 
-            for (int c = 0; c < labels.size(); ++c)
+        int numPending = 0;
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            final BreedResult cached = breedCache != null ? lookupBreed(breedCache, candidates, i, frame, cropToFrameTransform) : null;
+            if (cached != null)
             {
-                if (classes[c] > maxClass)
-                {
-                    detectedClass = c;
-                    maxClass = classes[c];
-                }
+                final Recognition result = createRecognition(candidates, i);
+                result.setBreedResult(cached);
+                dogBreedBoxes.add(result);
             }
-
-            final float score = maxClass;
-            if (score > getObjThresh() )
+            else
             {
-                final float xPos = bboxes[0][i][0];
-                final float yPos = bboxes[0][i][1];
-                final float w = bboxes[0][i][2];
-                final float h = bboxes[0][i][3];
-                final RectF rectF = new RectF(
-                        Math.max(0, xPos - w / 2),
-                        Math.max(0, yPos - h / 2),
-                        Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                        Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-
-                detections.add(new Recognition("" + i, labels.get(detectedClass),score,rectF,detectedClass ));
+                pendingCandidates[numPending++] = i;
             }
         }
 
-        return detections;
-    }
-
-    public ArrayList<Recognition> recognizeImage(Bitmap bitmap)
-    {
-        ByteBuffer byteBuffer = convertBitmapToByteBuffer(bitmap, INPUT_SIZE);
-
-        final ArrayList<Recognition> detections = getDetectionsForTiny(byteBuffer, bitmap);
-
-        final ArrayList<Recognition> onlyDogClassDetections = getOnlyDogClasses(detections);
-        final ArrayList<Recognition> dogRecognitions = nms(onlyDogClassDetections);
-        final ArrayList<Recognition> dogBreedResults = getDogBreedBoxes(dogRecognitions, bitmap);
-
-        return dogBreedResults;
-    }
+        if (numPending == 0)
+        {
+            return dogBreedBoxes;
+        }
 
-    private ArrayList<Recognition> getDogBreedBoxes(ArrayList<Recognition> results, Bitmap bitmap)
-    {
-        ArrayList<Recognition> dogBreedBoxes = new ArrayList<>();
-        for(final Recognition result : results)
+        // Crops are packed into a buffer sized for the largest batch. A crop that looks like one
+        // classified before takes its breeds from the crop cache and its slot is reused; the rest
+        // are classified in as few invocations as possible. Batches are padded up to the
+        // interpreter's batch size; the scores of the padding slots are simply ignored.
+        final int maxBatchSize = mobileNetLite.getMaxBatchSize();
+        final TensorBuffer cropBuffer = tensorBufferPool.acquire(mobileNetLite.getInputShape(maxBatchSize));
+        try
         {
-            RectF box = result.getLocation();
-            int boxWidth = (int)(box.right - box.left);
-            int boxHeight = (int)(box.bottom - box.top);
-            Bitmap cropImage = Bitmap.createBitmap(bitmap, (int)box.left, (int)box.top, boxWidth, boxHeight);
-            Bitmap resizedMobilenetBitmap = cropImage.createScaledBitmap(cropImage, 224, 224, false);
-
-            ByteBuffer byteBuffer = convertBitmapToByteBuffer(resizedMobilenetBitmap, 224);
-            float[][] output = new float[1][1001];
-            try
+            final FloatBuffer crops = cropBuffer.getFloats();
+            int count = 0;
+            for (int i = 0; i < numPending; i++)
             {
-                mobileNetLite.run(byteBuffer, output);
-                float[] class_scores = output[0];
-                double minValue = DetectorActivity.MINIMUM_CONFIDENCE_SCORE;
-                for(int jj = 0; jj < class_scores.length; jj++)
+                // Sample the crops from the full-resolution frame rather than the downscaled model input.
+                final int index = pendingCandidates[i];
+                final int slotStart = crops.position();
+                final long hash = frameCropper.crop(
+                        frame, cropToFrameTransform,
+                        candidates.getLeft(index), candidates.getTop(index),
+                        candidates.getRight(index), candidates.getBottom(index),
+                        crops);
+
+                final BreedResult cached = cropCache.get(hash, frame.getTimestamp());
+                if (cached != null)
                 {
-                    if(class_scores[jj] > minValue)
-                    {
-                        String code =  indexToCode.get(new Integer(jj));
-                        String breedName = codesToHuman.get(code);
-                        Recognition resultWithBreed = result;
-                        resultWithBreed.setBreedName(breedName);
-                        dogBreedBoxes.add(resultWithBreed);
-                    }
+                    // The copy keeps the time of the classification, so the tracker doesn't take it
+                    // for a fresh one.
+                    crops.position(slotStart);
+                    final BreedResult breeds = new BreedResult(TOP_K_BREEDS);
+                    breeds.copyFrom(cached);
+                    final Recognition result = createRecognition(candidates, index);
+                    result.setBreedResult(breeds);
+                    dogBreedBoxes.add(result);
+                }
+                else
+                {
+                    batchCandidates[count] = index;
+                    batchHashes[count] = hash;
+                    count++;
+                }
+
+                if (count == maxBatchSize || (count > 0 && i == numPending - 1))
+                {
+                    classifyCrops(cropBuffer, count, candidates, frame, dogBreedBoxes);
+                    crops.rewind();
+                    count = 0;
                 }
             }
-            catch (Exception ex)
-            {
-                LOGGER.d(ex.getMessage());
-            }
+        }
+        catch (Exception ex)
+        {
+            // The dogs already resolved are still published; the rest of the frame goes without breeds.
+            LOGGER.e(ex, "Failed to classify dog breeds");
+        }
+        finally
+        {
+            tensorBufferPool.release(cropBuffer);
         }
 
         return dogBreedBoxes;
     }
 
-    private ArrayList<Recognition> getOnlyDogClasses(ArrayList<Recognition> results)
+    private void classifyCrops(
+            TensorBuffer cropBuffer, int count, DetectionCandidates candidates, YuvFrame frame, ArrayList<Recognition> dogBreedBoxes)
     {
-        ArrayList<Recognition> onlyDogClasses = new ArrayList<>();
-        for (Recognition item : results)
+        final int batchSize = mobileNetLite.getBatchSize(count);
+        final TensorBuffer outputBuffer = tensorBufferPool.acquire(mobileNetLite.getOutputShape(batchSize));
+        try
         {
-            Integer resultClass = new Integer(item.getDetectedClass());
-            if (possibleDetectionClasses.contains(resultClass))
+            mobileNetLite.getInterpreter(batchSize).run(cropBuffer.getLeadingBuffer(batchSize), outputBuffer.getBuffer());
+
+            final FloatBuffer classScores = outputBuffer.getFloats();
+            final int numClasses = outputBuffer.getNumElements() / batchSize;
+            for (int i = 0; i < count; i++)
             {
-                onlyDogClasses.add(item);
+                final BreedResult breeds = new BreedResult(TOP_K_BREEDS);
+                breedIndex.selectTopK(classScores, i * numClasses, DetectorActivity.MINIMUM_CONFIDENCE_SCORE, breeds);
+                breeds.setTimestamp(frame.getTimestamp());
+                if (breeds.size() == 0)
+                {
+                    continue;
+                }
+
+                cropCache.put(batchHashes[i], breeds);
+
+                final Recognition result = createRecognition(candidates, batchCandidates[i]);
+                result.setBreedResult(breeds);
+                dogBreedBoxes.add(result);
             }
         }
+        finally
+        {
+            tensorBufferPool.release(outputBuffer);
+        }
+    }
 
-        return onlyDogClasses;
+    private BreedResult lookupBreed(
+            BreedCache breedCache, DetectionCandidates candidates, int index, YuvFrame frame, Matrix cropToFrameTransform)
+    {
+        lookupBox.set(candidates.getLeft(index), candidates.getTop(index), candidates.getRight(index), candidates.getBottom(index));
+        cropToFrameTransform.mapRect(lookupBox);
+
+        return breedCache.lookup(lookupBox.left, lookupBox.top, lookupBox.right, lookupBox.bottom, frame.getTimestamp());
+    }
+
+    private Recognition createRecognition(DetectionCandidates candidates, int index)
+    {
+        final int detectedClass = candidates.getDetectedClass(index);
+        final String label = labels.getDetectorLabel(detectedClass);
+        final RectF location = new RectF(
+                candidates.getLeft(index),
+                candidates.getTop(index),
+                candidates.getRight(index),
+                candidates.getBottom(index));
+
+        return new Recognition(label, label, candidates.getScore(index), location, detectedClass);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package com.dogbreed.detector;
+
+/**
+ * Converts camera timestamps into the {@link System#nanoTime()} clock that vsync times are given
+ * in. Depending on the device, camera timestamps come from that clock or from the elapsed realtime
+ * clock, so the offset between the two is measured instead of assumed: it is the smallest gap
+ * between a frame's timestamp and its arrival seen so far, which only adds the delivery latency.
+ * The estimate creeps up slowly so that it follows drift between the clocks.
+ */
+public class FrameClock
+{
+    // Fraction of the difference to a larger gap that is taken over per frame.
+    private static final float DRIFT_RATE = 0.01f;
+
+    private long offsetNs;
+    private boolean hasOffset = false;
+
+    /** Called when a camera image arrives, with its timestamp and {@link System#nanoTime()}. */
+    public synchronized void onFrameArrived(final long cameraTimestamp, final long arrivalNanoTime)
+    {
+        final long gap = arrivalNanoTime - cameraTimestamp;
+        if (!hasOffset || gap < offsetNs)
+        {
+            offsetNs = gap;
+            hasOffset = true;
+        }
+        else
+        {
+            offsetNs += (long) ((gap - offsetNs) * DRIFT_RATE);
+        }
+    }
+
+    /** Returns true once a frame arrived, and camera timestamps can be converted. */
+    public synchronized boolean isCalibrated()
+    {
+        return hasOffset;
+    }
+
+    /** Returns the {@link System#nanoTime()} at which a frame with the given timestamp was captured. */
+    public synchronized long toNanoTime(final long cameraTimestamp)
+    {
+        return cameraTimestamp + offsetNs;
+    }
+}
@@ -0,0 +1,219 @@
+package com.dogbreed.detector;
+
+import android.graphics.Matrix;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Cuts a box out of a YUV camera frame and resizes it into a square, normalized RGB model input in a
+ * single pass. Boxes are given in model input coordinates and mapped back into the full-resolution
+ * frame, so small objects keep every pixel the camera delivered instead of the downscaled ones.
+ * Luma and chroma are sampled bilinearly and converted to RGB per destination pixel.
+ *
+ * <p>While cropping, the luma is also averaged over an 8x8 grid to give a 64-bit average hash of
+ * the crop, so that near-identical crops can be recognised without running a model on them.
+ */
+public class FrameCropper
+{
+    private static final int PIXEL_SIZE = 3;
+    private static final int HASH_GRID_SIZE = 8;
+
+    // YUV2RGB coefficients, scaled so that the result is already normalized to [0, 1].
+    private static final float Y_SCALE = 1192.0f / 1024.0f / 255.0f;
+    private static final float V_TO_R = 1634.0f / 1024.0f / 255.0f;
+    private static final float V_TO_G = -833.0f / 1024.0f / 255.0f;
+    private static final float U_TO_G = -400.0f / 1024.0f / 255.0f;
+    private static final float U_TO_B = 2066.0f / 1024.0f / 255.0f;
+
+    private final int dstSize;
+
+    // Frame coordinates of every destination pixel centre: src = column[dx] + row[dy].
+    private final float[] columnX;
+    private final float[] columnY;
+    private final float[] rowX;
+    private final float[] rowY;
+
+    private final float[] rowValues;
+    private final float[] matrixValues = new float[9];
+
+    // Hash grid cell of every destination column and row, the pixels per cell, and the luma sums.
+    private final int[] cellColumn;
+    private final int[] cellRow;
+    private final float[] cellPixels = new float[HASH_GRID_SIZE * HASH_GRID_SIZE];
+    private final float[] cellSums = new float[HASH_GRID_SIZE * HASH_GRID_SIZE];
+
+    /**
+     * @param dstSize width and height of the square model input.
+     */
+    public FrameCropper(final int dstSize)
+    {
+        this.dstSize = dstSize;
+        columnX = new float[dstSize];
+        columnY = new float[dstSize];
+        rowX = new float[dstSize];
+        rowY = new float[dstSize];
+        rowValues = new float[dstSize * PIXEL_SIZE];
+
+        cellColumn = new int[dstSize];
+        cellRow = new int[dstSize];
+        for (int i = 0; i < dstSize; i++)
+        {
+            cellColumn[i] = i * HASH_GRID_SIZE / dstSize;
+            cellRow[i] = cellColumn[i] * HASH_GRID_SIZE;
+        }
+
+        for (int dy = 0; dy < dstSize; dy++)
+        {
+            for (int dx = 0; dx < dstSize; dx++)
+            {
+                cellPixels[cellRow[dy] + cellColumn[dx]]++;
+            }
+        }
+    }
+
+    /**
+     * Writes the box, stretched to {@code dstSize * dstSize}, as normalized RGB into {@code out}.
+     *
+     * @param frame the camera frame to sample from.
+     * @param cropToFrameTransform maps model input coordinates into frame coordinates.
+     * @param left box left edge in model input coordinates.
+     * @param top box top edge in model input coordinates.
+     * @param right box right edge in model input coordinates.
+     * @param bottom box bottom edge in model input coordinates.
+     * @param out destination float view, positioned at the first pixel of the crop.
+     * @return the average hash of the crop: one bit per grid cell, set where the cell is brighter
+     *     than the whole crop.
+     */
+    public long crop(
+            final YuvFrame frame,
+            final Matrix cropToFrameTransform,
+            final float left,
+            final float top,
+            final float right,
+            final float bottom,
+            final FloatBuffer out)
+    {
+        cropToFrameTransform.getValues(matrixValues);
+        final float stepX = (right - left) / dstSize;
+        final float stepY = (bottom - top) / dstSize;
+        for (int i = 0; i < dstSize; i++)
+        {
+            final float cropX = left + (i + 0.5f) * stepX;
+            final float cropY = top + (i + 0.5f) * stepY;
+            columnX[i] = matrixValues[Matrix.MSCALE_X] * cropX;
+            columnY[i] = matrixValues[Matrix.MSKEW_Y] * cropX;
+            rowX[i] = matrixValues[Matrix.MSKEW_X] * cropY + matrixValues[Matrix.MTRANS_X];
+            rowY[i] = matrixValues[Matrix.MSCALE_Y] * cropY + matrixValues[Matrix.MTRANS_Y];
+        }
+
+        final ByteBuffer yPlane = frame.getYPlane();
+        final ByteBuffer uPlane = frame.getUPlane();
+        final ByteBuffer vPlane = frame.getVPlane();
+        final int maxX = frame.getWidth() - 1;
+        final int maxY = frame.getHeight() - 1;
+        final int maxChromaX = (frame.getWidth() - 1) >> 1;
+        final int maxChromaY = (frame.getHeight() - 1) >> 1;
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+
+        for (int i = 0; i < cellSums.length; i++)
+        {
+            cellSums[i] = 0.0f;
+        }
+
+        for (int dy = 0; dy < dstSize; dy++)
+        {
+            final int cellBase = cellRow[dy];
+            int channel = 0;
+            for (int dx = 0; dx < dstSize; dx++)
+            {
+                final float srcX = columnX[dx] + rowX[dy];
+                final float srcY = columnY[dx] + rowY[dy];
+
+                // Luma samples sit at pixel centres, chroma samples at the centre of each 2x2 block.
+                final float lumaX = srcX - 0.5f;
+                final float lumaY = srcY - 0.5f;
+                final int x0 = (int) Math.floor(lumaX);
+                final int y0 = (int) Math.floor(lumaY);
+                final float fx = lumaX - x0;
+                final float fy = lumaY - y0;
+                final int xa = clamp(x0, maxX);
+                final int xb = clamp(x0 + 1, maxX);
+                final int ya = clamp(y0, maxY) * yRowStride;
+                final int yb = clamp(y0 + 1, maxY) * yRowStride;
+                final float luma = lerp(
+                        lerp(0xff & yPlane.get(ya + xa), 0xff & yPlane.get(ya + xb), fx),
+                        lerp(0xff & yPlane.get(yb + xa), 0xff & yPlane.get(yb + xb), fx),
+                        fy);
+                cellSums[cellBase + cellColumn[dx]] += luma;
+
+                final float chromaX = srcX * 0.5f - 0.5f;
+                final float chromaY = srcY * 0.5f - 0.5f;
+                final int cx0 = (int) Math.floor(chromaX);
+                final int cy0 = (int) Math.floor(chromaY);
+                final float cfx = chromaX - cx0;
+                final float cfy = chromaY - cy0;
+                final int cxa = clamp(cx0, maxChromaX) * uvPixelStride;
+                final int cxb = clamp(cx0 + 1, maxChromaX) * uvPixelStride;
+                final int cya = clamp(cy0, maxChromaY) * uvRowStride;
+                final int cyb = clamp(cy0 + 1, maxChromaY) * uvRowStride;
+                final float u = lerp(
+                        lerp(0xff & uPlane.get(cya + cxa), 0xff & uPlane.get(cya + cxb), cfx),
+                        lerp(0xff & uPlane.get(cyb + cxa), 0xff & uPlane.get(cyb + cxb), cfx),
+                        cfy) - 128.0f;
+                final float v = lerp(
+                        lerp(0xff & vPlane.get(cya + cxa), 0xff & vPlane.get(cya + cxb), cfx),
+                        lerp(0xff & vPlane.get(cyb + cxa), 0xff & vPlane.get(cyb + cxb), cfx),
+                        cfy) - 128.0f;
+
+                final float y = luma > 16.0f ? (luma - 16.0f) * Y_SCALE : 0.0f;
+                rowValues[channel++] = clampUnit(y + V_TO_R * v);
+                rowValues[channel++] = clampUnit(y + V_TO_G * v + U_TO_G * u);
+                rowValues[channel++] = clampUnit(y + U_TO_B * u);
+            }
+
+            out.put(rowValues, 0, channel);
+        }
+
+        return averageHash();
+    }
+
+    private long averageHash()
+    {
+        float total = 0.0f;
+        for (int i = 0; i < cellSums.length; i++)
+        {
+            cellSums[i] /= cellPixels[i];
+            total += cellSums[i];
+        }
+
+        final float mean = total / cellSums.length;
+        long hash = 0;
+        for (int i = 0; i < cellSums.length; i++)
+        {
+            if (cellSums[i] > mean)
+            {
+                hash |= 1L << i;
+            }
+        }
+
+        return hash;
+    }
+
+    private static int clamp(final int value, final int max)
+    {
+        return value < 0 ? 0 : (value > max ? max : value);
+    }
+
+    private static float clampUnit(final float value)
+    {
+        return value < 0.0f ? 0.0f : (value > 1.0f ? 1.0f : value);
+    }
+
+    private static float lerp(final float a, final float b, final float t)
+    {
+        return a + (b - a) * t;
+    }
+}
@@ -0,0 +1,64 @@
+package com.dogbreed.detector;
+
+import android.media.Image;
+
+import java.util.List;
+
+/**
+ * One camera frame on its way through the {@link FramePipeline}. Jobs are pooled and reused. A job
+ * reads its camera image's planes in place and owns the image until it is closed, along with the
+ * candidate store its detections are written to.
+ */
+class FrameJob
+{
+    final YuvFrame frame = new YuvFrame();
+    final DetectionCandidates candidates = new DetectionCandidates();
+
+    // Sequence number of the frame, as handed to the tracker.
+    long frameIndex;
+    // Detector input, borrowed from the classifier between the convert and detect stages.
+    TensorBuffer input;
+    List<Classifier.Recognition> results;
+
+    private Image image;
+
+    /**
+     * Points {@link #frame} at {@code image}'s planes, without copying them. The job owns the image
+     * until {@link #closeImage()}.
+     */
+    void setImage(final Image image, final long frameIndex)
+    {
+        WrapImage(image, frame);
+        this.image = image;
+        this.frameIndex = frameIndex;
+        candidates.clear();
+        results = null;
+    }
+
+    /** Points {@code frame} at {@code image}'s planes, without copying them. */
+    static void WrapImage(final Image image, final YuvFrame frame)
+    {
+        final Image.Plane[] planes = image.getPlanes();
+        frame.set(
+                planes[0].getBuffer(),
+                planes[1].getBuffer(),
+                planes[2].getBuffer(),
+                image.getWidth(),
+                image.getHeight(),
+                planes[0].getRowStride(),
+                planes[1].getRowStride(),
+                planes[1].getPixelStride(),
+                image.getTimestamp());
+    }
+
+    /** Gives the camera image back. {@link #frame} must not be read afterwards. */
+    void closeImage()
+    {
+        if (image != null)
+        {
+            image.close();
+            image = null;
+            frame.set(null, null, null, 0, 0, 0, 0, 0, frame.getTimestamp());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.dogbreed.detector;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-slot mailbox holding the newest camera frame. The camera thread posts every frame it
+ * gets and the consumer always takes the freshest one; a frame that is replaced before anyone took
+ * it is released right away, so it goes back to the camera instead of waiting to be processed late.
+ */
+public class FrameMailbox<T>
+{
+    /** Gives a frame that will never be processed back to its owner. */
+    public interface Releaser<T>
+    {
+        void release(T frame);
+    }
+
+    private final AtomicReference<T> slot = new AtomicReference<>();
+    private final Releaser<T> releaser;
+    private volatile Thread waitingConsumer;
+
+    public FrameMailbox(final Releaser<T> releaser)
+    {
+        this.releaser = releaser;
+    }
+
+    /** Publishes {@code frame}, releasing the one it replaces. */
+    public void post(final T frame)
+    {
+        final T stale = slot.getAndSet(frame);
+        if (stale != null)
+        {
+            releaser.release(stale);
+        }
+
+        final Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+    }
+
+    /** Takes the newest frame, or returns null if there is none. The caller now owns it. */
+    public T poll()
+    {
+        return slot.getAndSet(null);
+    }
+
+    /** Takes the newest frame, waiting for one if the mailbox is empty. Single consumer only. */
+    public T take() throws InterruptedException
+    {
+        T frame;
+        while ((frame = poll()) == null)
+        {
+            waitingConsumer = Thread.currentThread();
+            if (slot.get() == null)
+            {
+                LockSupport.park(this);
+            }
+
+            waitingConsumer = null;
+            if (Thread.interrupted())
+            {
+                throw new InterruptedException();
+            }
+        }
+
+        return frame;
+    }
+
+    /** Releases the waiting frame, if any. */
+    public void clear()
+    {
+        final T stale = poll();
+        if (stale != null)
+        {
+            releaser.release(stale);
+        }
+    }
+}
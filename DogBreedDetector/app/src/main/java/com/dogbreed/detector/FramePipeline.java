@@ -0,0 +1,379 @@
+package com.dogbreed.detector;
+
+import android.graphics.Matrix;
+import android.media.Image;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Runs recognition as four stages: convert, detect, classify and publish. Each stage has its own
+ * worker thread, and consecutive stages are joined by bounded {@link SpscQueue}s, so YOLO can run on
+ * one frame while MobileNet classifies the dogs of the previous one. Throughput is bounded by the
+ * slowest stage rather than by the sum of all of them.
+ *
+ * <p>The convert stage takes the newest camera image from a {@link FrameMailbox}, so it never
+ * starts on a frame while a newer one is waiting. Every image it takes is shown to the frame
+ * tracker before anything else, even when no job is free for it. From there, frames travel as pooled {@link
+ * FrameJob}s; a job that can't be queued is dropped and goes back to the pool. Jobs read the
+ * image's planes in place and keep it open until the classify stage is done with it, so at most
+ * {@link #getMaxHeldImages} images are held at once.
+ */
+public class FramePipeline
+{
+    private static final Logger LOGGER = new Logger();
+
+    public static final int STAGE_CONVERT = 0;
+    public static final int STAGE_DETECT = 1;
+    public static final int STAGE_CLASSIFY = 2;
+    public static final int STAGE_PUBLISH = 3;
+    private static final int NUM_STAGES = 4;
+    private static final String[] STAGE_NAMES = { "convert", "detect", "classify", "publish" };
+
+    /** What a stage does with a job when the queue of the next stage is full. */
+    public enum DropPolicy
+    {
+        /** Wait until the next stage has room. */
+        BLOCK,
+        /** Drop the job that doesn't fit. */
+        DROP
+    }
+
+    /** Receives the results of every frame that makes it through, on the publish stage's thread. */
+    public interface Listener
+    {
+        /**
+         * @param timestamp capture timestamp of the frame, in nanoseconds.
+         */
+        void onResults(List<Classifier.Recognition> results, long frameIndex, long timestamp);
+    }
+
+    private final Classifier classifier;
+    private final FrameMailbox<Image> frameMailbox;
+    private final Matrix cropToFrameTransform;
+    private final Listener listener;
+
+    // Indexed by stage; the convert stage reads the mailbox and has no queue.
+    private final int[] queueDepths = { 0, 1, 1, 1 };
+    private final DropPolicy[] dropPolicies = { null, DropPolicy.BLOCK, DropPolicy.BLOCK, DropPolicy.BLOCK };
+
+    private final SpscQueue<FrameJob>[] queues;
+    private final Thread[] workers = new Thread[NUM_STAGES];
+    private final ArrayDeque<FrameJob> freeJobs = new ArrayDeque<>();
+    private volatile boolean running = false;
+    private long frameCount = 0;
+    // Wraps each camera image for the frame tracker; only used on the convert stage's thread.
+    private final YuvFrame trackingFrame = new YuvFrame();
+    private MotionDetector motionDetector;
+    private FrameTracker frameTracker;
+    private BreedCache breedCache;
+
+    /**
+     * @param frameMailbox where the camera posts its images. Images taken from it are closed by the
+     *     pipeline.
+     * @param cropToFrameTransform maps model input coordinates into frame coordinates. Must not be
+     *     changed while the pipeline runs.
+     */
+    @SuppressWarnings("unchecked")
+    public FramePipeline(
+            final Classifier classifier,
+            final FrameMailbox<Image> frameMailbox,
+            final Matrix cropToFrameTransform,
+            final Listener listener)
+    {
+        this.classifier = classifier;
+        this.frameMailbox = frameMailbox;
+        this.cropToFrameTransform = cropToFrameTransform;
+        this.listener = listener;
+        queues = new SpscQueue[NUM_STAGES];
+    }
+
+    /**
+     * Configures the queue in front of {@code stage}. Must be called before {@link #start()}. The
+     * convert stage has no queue: it always takes the newest frame from the mailbox.
+     *
+     * @param depth number of jobs that may wait for the stage.
+     * @param dropPolicy what the previous stage does when the queue is full.
+     */
+    public void setQueue(final int stage, final int depth, final DropPolicy dropPolicy)
+    {
+        if (stage == STAGE_CONVERT)
+        {
+            throw new IllegalArgumentException("The convert stage reads the frame mailbox");
+        }
+
+        queueDepths[stage] = depth;
+        dropPolicies[stage] = dropPolicy;
+    }
+
+    /**
+     * Only lets frames with enough motion, or frames after a long enough pause, through to
+     * detection. Frames it skips produce no results, so the last ones stay on screen. Must be called
+     * before {@link #start()}; null runs detection on every frame.
+     */
+    public void setMotionDetector(final MotionDetector motionDetector)
+    {
+        this.motionDetector = motionDetector;
+    }
+
+    /**
+     * Shows every frame to {@code frameTracker}, which keeps the tracked boxes moving between
+     * detections and decides which frames are detected on. Frames it passes over still have to get
+     * past the motion detector. Must be called before {@link #start()}; the tracker is called from
+     * the convert stage's thread, for every image taken from the mailbox, whether or not a job is
+     * free. To keep the tracker from waiting on detection, the detect queue should use {@link
+     * DropPolicy#DROP}.
+     */
+    public void setFrameTracker(final FrameTracker frameTracker)
+    {
+        this.frameTracker = frameTracker;
+    }
+
+    /**
+     * Lets the classify stage reuse breeds of dogs that are already known. Must be called before
+     * {@link #start()}; the cache is queried from the classify stage's thread.
+     */
+    public void setBreedCache(final BreedCache breedCache)
+    {
+        this.breedCache = breedCache;
+    }
+
+    /**
+     * Number of camera images the pipeline may hold at once with the given queue depths: one in
+     * each of the convert, detect and classify stages plus whatever waits in between. The camera's
+     * image reader needs room for this many, plus the one in the mailbox and the one it acquires.
+     */
+    public static int getMaxHeldImages(final int detectQueueDepth, final int classifyQueueDepth)
+    {
+        return 3 + detectQueueDepth + classifyQueueDepth;
+    }
+
+    public synchronized void start()
+    {
+        if (running)
+        {
+            return;
+        }
+
+        // Enough jobs for every queue to be full while every stage holds one more.
+        int numJobs = NUM_STAGES;
+        for (int stage = STAGE_DETECT; stage < NUM_STAGES; stage++)
+        {
+            queues[stage] = new SpscQueue<>(queueDepths[stage]);
+            numJobs += queueDepths[stage];
+        }
+
+        synchronized (freeJobs)
+        {
+            for (int i = freeJobs.size(); i < numJobs; i++)
+            {
+                freeJobs.push(new FrameJob());
+            }
+        }
+
+        if (motionDetector != null)
+        {
+            motionDetector.reset();
+        }
+
+        running = true;
+        for (int stage = 0; stage < NUM_STAGES; stage++)
+        {
+            final int current = stage;
+            workers[stage] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runStage(current);
+                }
+            }, "pipeline-" + STAGE_NAMES[stage]);
+            workers[stage].start();
+        }
+    }
+
+    /** Stops every stage and waits for them. Jobs still in flight are dropped. */
+    public synchronized void stop()
+    {
+        if (!running)
+        {
+            return;
+        }
+
+        running = false;
+        for (final Thread worker : workers)
+        {
+            worker.interrupt();
+        }
+
+        for (int stage = 0; stage < NUM_STAGES; stage++)
+        {
+            try
+            {
+                workers[stage].join();
+            }
+            catch (final InterruptedException e)
+            {
+                LOGGER.e(e, "Interrupted while stopping the pipeline");
+                Thread.currentThread().interrupt();
+            }
+
+            workers[stage] = null;
+        }
+
+        for (int stage = STAGE_DETECT; stage < NUM_STAGES; stage++)
+        {
+            final SpscQueue<FrameJob> queue = queues[stage];
+            FrameJob job;
+            while ((job = queue.poll()) != null)
+            {
+                recycle(job);
+            }
+        }
+    }
+
+    private void runStage(final int stage)
+    {
+        final SpscQueue<FrameJob> input = queues[stage];
+        try
+        {
+            while (running)
+            {
+                final FrameJob job = stage == STAGE_CONVERT ? takeFrame() : input.take();
+                if (job == null)
+                {
+                    continue;
+                }
+
+                boolean done;
+                try
+                {
+                    done = process(stage, job);
+                }
+                catch (final RuntimeException e)
+                {
+                    LOGGER.e(e, "Pipeline stage %s failed", STAGE_NAMES[stage]);
+                    done = true;
+                }
+
+                if (done)
+                {
+                    recycle(job);
+                }
+                else if (dropPolicies[stage + 1] == DropPolicy.BLOCK)
+                {
+                    try
+                    {
+                        queues[stage + 1].put(job);
+                    }
+                    catch (final InterruptedException e)
+                    {
+                        recycle(job);
+                        throw e;
+                    }
+                }
+                else if (!queues[stage + 1].offer(job))
+                {
+                    recycle(job);
+                }
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            // Stopped.
+        }
+    }
+
+    /**
+     * Runs one stage on {@code job}.
+     *
+     * @return true if the job is finished and can go back to the pool.
+     */
+    private boolean process(final int stage, final FrameJob job)
+    {
+        switch (stage)
+        {
+            case STAGE_CONVERT:
+                job.input = classifier.convert(job.frame, cropToFrameTransform);
+                return false;
+            case STAGE_DETECT:
+                classifier.detect(job.input, job.candidates);
+                classifier.releaseInput(job.input);
+                job.input = null;
+                return false;
+            case STAGE_CLASSIFY:
+                job.results = classifier.classify(job.candidates, job.frame, cropToFrameTransform, breedCache);
+                // Nothing reads the frame after this stage, so the camera gets its image back.
+                job.closeImage();
+                return false;
+            default:
+                listener.onResults(job.results, job.frameIndex, job.frame.getTimestamp());
+                return true;
+        }
+    }
+
+    /**
+     * Waits for the newest camera image, shows it to the tracker and hands it to a job, or returns
+     * null if the image was dropped because the tracker is following the scene well enough, every
+     * job is still busy, or the scene hasn't changed. The tracker sees the image before a job is
+     * needed, so it follows every frame the convert stage takes however busy detection is.
+     */
+    private FrameJob takeFrame() throws InterruptedException
+    {
+        final Image image = frameMailbox.take();
+        final long frameIndex = ++frameCount;
+        boolean detect = true;
+        if (frameTracker != null)
+        {
+            FrameJob.WrapImage(image, trackingFrame);
+            try
+            {
+                detect = frameTracker.onFrame(trackingFrame);
+            }
+            finally
+            {
+                trackingFrame.set(null, null, null, 0, 0, 0, 0, 0, trackingFrame.getTimestamp());
+            }
+        }
+
+        final FrameJob job = detect ? obtain() : null;
+        if (job == null)
+        {
+            image.close();
+            return null;
+        }
+
+        job.setImage(image, frameIndex);
+        if (motionDetector != null && !motionDetector.shouldDetect(job.frame))
+        {
+            recycle(job);
+            return null;
+        }
+
+        return job;
+    }
+
+    private FrameJob obtain()
+    {
+        synchronized (freeJobs)
+        {
+            return freeJobs.poll();
+        }
+    }
+
+    private void recycle(final FrameJob job)
+    {
+        job.closeImage();
+        if (job.input != null)
+        {
+            classifier.releaseInput(job.input);
+            job.input = null;
+        }
+
+        job.results = null;
+        synchronized (freeJobs)
+        {
+            freeJobs.push(job);
+        }
+    }
+}
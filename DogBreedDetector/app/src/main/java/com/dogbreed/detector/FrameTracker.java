@@ -0,0 +1,16 @@
+package com.dogbreed.detector;
+
+/**
+ * Follows tracked objects through every camera frame, and decides which frames need a full
+ * detection to correct them.
+ */
+public interface FrameTracker
+{
+    /**
+     * Called with every frame the pipeline takes, in order, before detection. The frame's planes
+     * are only valid during the call.
+     *
+     * @return true if detection should run on the frame.
+     */
+    boolean onFrame(YuvFrame frame);
+}
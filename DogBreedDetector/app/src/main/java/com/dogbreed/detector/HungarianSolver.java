@@ -0,0 +1,152 @@
+package com.dogbreed.detector;
+
+/**
+ * Solves the assignment problem: matches rows to columns of a cost matrix so that the total cost
+ * is minimal, in O(n^2 m) with the shortest augmenting path method. Working arrays are kept between
+ * calls and only grow.
+ */
+public class HungarianSolver
+{
+    private float[] rowPotential = new float[0];
+    private float[] columnPotential = new float[0];
+    private float[] minSlack = new float[0];
+    private int[] columnMatch = new int[0];
+    private int[] previousColumn = new int[0];
+    private boolean[] visited = new boolean[0];
+
+    /**
+     * Finds the cheapest assignment.
+     *
+     * @param costs row-major cost matrix of {@code rows * columns} entries.
+     * @param assignment receives, for every row, the column it is matched to, or -1 if there are
+     *     fewer columns than rows and the row is left out.
+     */
+    public void solve(final float[] costs, final int rows, final int columns, final int[] assignment)
+    {
+        for (int row = 0; row < rows; row++)
+        {
+            assignment[row] = -1;
+        }
+
+        if (rows == 0 || columns == 0)
+        {
+            return;
+        }
+
+        // The method needs at least as many columns as rows; otherwise it solves the transpose.
+        final boolean transposed = rows > columns;
+        final int n = transposed ? columns : rows;
+        final int m = transposed ? rows : columns;
+        ensureCapacity(n, m);
+
+        for (int i = 0; i <= n; i++)
+        {
+            rowPotential[i] = 0.0f;
+        }
+
+        for (int j = 0; j <= m; j++)
+        {
+            columnPotential[j] = 0.0f;
+            columnMatch[j] = 0;
+        }
+
+        // Rows and columns are 1-based below; column 0 is the virtual start of every path.
+        for (int i = 1; i <= n; i++)
+        {
+            columnMatch[0] = i;
+            int column = 0;
+            for (int j = 0; j <= m; j++)
+            {
+                minSlack[j] = Float.POSITIVE_INFINITY;
+                visited[j] = false;
+            }
+
+            do
+            {
+                visited[column] = true;
+                final int row = columnMatch[column];
+                float delta = Float.POSITIVE_INFINITY;
+                int nextColumn = 0;
+                for (int j = 1; j <= m; j++)
+                {
+                    if (visited[j])
+                    {
+                        continue;
+                    }
+
+                    final float cost = transposed ? costs[(j - 1) * columns + row - 1] : costs[(row - 1) * columns + j - 1];
+                    final float slack = cost - rowPotential[row] - columnPotential[j];
+                    if (slack < minSlack[j])
+                    {
+                        minSlack[j] = slack;
+                        previousColumn[j] = column;
+                    }
+
+                    if (minSlack[j] < delta)
+                    {
+                        delta = minSlack[j];
+                        nextColumn = j;
+                    }
+                }
+
+                for (int j = 0; j <= m; j++)
+                {
+                    if (visited[j])
+                    {
+                        rowPotential[columnMatch[j]] += delta;
+                        columnPotential[j] -= delta;
+                    }
+                    else
+                    {
+                        minSlack[j] -= delta;
+                    }
+                }
+
+                column = nextColumn;
+            }
+            while (columnMatch[column] != 0);
+
+            do
+            {
+                final int previous = previousColumn[column];
+                columnMatch[column] = columnMatch[previous];
+                column = previous;
+            }
+            while (column != 0);
+        }
+
+        for (int j = 1; j <= m; j++)
+        {
+            if (columnMatch[j] == 0)
+            {
+                continue;
+            }
+
+            if (transposed)
+            {
+                assignment[j - 1] = columnMatch[j] - 1;
+            }
+            else
+            {
+                assignment[columnMatch[j] - 1] = j - 1;
+            }
+        }
+    }
+
+    private void ensureCapacity(final int n, final int m)
+    {
+        if (rowPotential.length < n + 1)
+        {
+            rowPotential = new float[2 * (n + 1)];
+        }
+
+        if (columnPotential.length < m + 1)
+        {
+            columnPotential = new float[2 * (m + 1)];
+            minSlack = new float[2 * (m + 1)];
+            columnMatch = new int[2 * (m + 1)];
+            previousColumn = new int[2 * (m + 1)];
+            visited = new boolean[2 * (m + 1)];
+        }
+    }
+}
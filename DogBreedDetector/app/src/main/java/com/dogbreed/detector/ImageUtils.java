@@ -28,53 +28,54 @@ public class ImageUtils {
     // are normalized to eight bits.
     static final int kMaxChannelValue = 262143;
 
-    private static int YUV2RGB(int y, int u, int v) {
-        // Adjust and check YUV values
-        y = (y - 16) < 0 ? 0 : (y - 16);
-        u -= 128;
-        v -= 128;
-
-        // This is the floating point equivalent. We do the conversion in integer
-        // because some Android devices do not have floating point in hardware.
-        // nR = (int)(1.164 * nY + 2.018 * nU);
-        // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
-        // nB = (int)(1.164 * nY + 1.596 * nV);
-        int y1192 = 1192 * y;
-        int r = (y1192 + 1634 * v);
-        int g = (y1192 - 833 * v - 400 * u);
-        int b = (y1192 + 2066 * u);
-
-        // Clipping RGB values to be inside boundaries [ 0 , kMaxChannelValue ]
-        r = r > kMaxChannelValue ? kMaxChannelValue : (r < 0 ? 0 : r);
-        g = g > kMaxChannelValue ? kMaxChannelValue : (g < 0 ? 0 : g);
-        b = b > kMaxChannelValue ? kMaxChannelValue : (b < 0 ? 0 : b);
-
-        return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
-    }
+    // This is the floating point equivalent. We do the conversion in integer
+    // because some Android devices do not have floating point in hardware.
+    // nR = (int)(1.164 * nY + 2.018 * nU);
+    // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
+    // nB = (int)(1.164 * nY + 1.596 * nV);
+    //
+    // The per-channel contributions of Y, U and V are precomputed below. Clipping a channel to
+    // [ 0 , kMaxChannelValue ] and keeping its top eight bits is the same as clipping the sum
+    // shifted right by ten bits to [ 0 , 255 ], so that step is a table lookup as well.
+    private static final int[] Y_CONTRIBUTION = new int[256];
+    private static final int[] V_TO_R = new int[256];
+    private static final int[] V_TO_G = new int[256];
+    private static final int[] U_TO_G = new int[256];
+    private static final int[] U_TO_B = new int[256];
+
+    // Shifted channel sums range from -259 to 534; index with (sum >> 10) + CLIP_OFFSET.
+    private static final int CLIP_OFFSET = 512;
+    private static final int CLIP_TABLE_SIZE = 1536;
+    private static final int[] CLIPPED_R = new int[CLIP_TABLE_SIZE];
+    private static final int[] CLIPPED_G = new int[CLIP_TABLE_SIZE];
+    private static final int[] CLIPPED_B = new int[CLIP_TABLE_SIZE];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            Y_CONTRIBUTION[i] = 1192 * ((i - 16) < 0 ? 0 : (i - 16));
+            V_TO_R[i] = 1634 * (i - 128);
+            V_TO_G[i] = -833 * (i - 128);
+            U_TO_G[i] = -400 * (i - 128);
+            U_TO_B[i] = 2066 * (i - 128);
+        }
 
-    public static void convertYUV420ToARGB8888(
-            byte[] yData,
-            byte[] uData,
-            byte[] vData,
-            int width,
-            int height,
-            int yRowStride,
-            int uvRowStride,
-            int uvPixelStride,
-            int[] out) {
-        int yp = 0;
-        for (int j = 0; j < height; j++) {
-            int pY = yRowStride * j;
-            int pUV = uvRowStride * (j >> 1);
-
-            for (int i = 0; i < width; i++) {
-                int uv_offset = pUV + (i >> 1) * uvPixelStride;
-
-                out[yp++] = YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
-            }
+        for (int i = 0; i < CLIP_TABLE_SIZE; i++) {
+            final int value = i - CLIP_OFFSET;
+            final int clipped = value < 0 ? 0 : (value > 255 ? 255 : value);
+            CLIPPED_R[i] = 0xff000000 | (clipped << 16);
+            CLIPPED_G[i] = clipped << 8;
+            CLIPPED_B[i] = clipped;
         }
     }
 
+    static int YUV2RGB(int y, int u, int v) {
+        final int y1192 = Y_CONTRIBUTION[y];
+
+        return CLIPPED_R[((y1192 + V_TO_R[v]) >> 10) + CLIP_OFFSET]
+                | CLIPPED_G[((y1192 + V_TO_G[v] + U_TO_G[u]) >> 10) + CLIP_OFFSET]
+                | CLIPPED_B[((y1192 + U_TO_B[u]) >> 10) + CLIP_OFFSET];
+    }
+
     /**
      * Returns a transformation matrix from one reference frame into another. Handles cropping (if
      * maintaining aspect ratio is desired) and rotation.
@@ -0,0 +1,119 @@
+package com.dogbreed.detector;
+
+import android.graphics.RectF;
+
+/**
+ * Constant-velocity Kalman filter for one tracked box. The box centre, width and height are
+ * filtered independently, each with its own position and velocity, which keeps every step a few
+ * multiplications. Predicted boxes let the tracker match detections against where a dog should be
+ * by now rather than where it was last seen.
+ */
+public class KalmanBoxFilter
+{
+    private static final int CENTER_X = 0;
+    private static final int CENTER_Y = 1;
+    private static final int WIDTH = 2;
+    private static final int HEIGHT = 3;
+    private static final int NUM_COMPONENTS = 4;
+
+    // Standard deviation of a detected box edge, in pixels.
+    private static final float MEASUREMENT_STD = 8.0f;
+    // Standard deviation of the unmodelled acceleration, in pixels per second squared.
+    private static final float ACCELERATION_STD = 400.0f;
+    // Standard deviation of the velocity of a new track, in pixels per second.
+    private static final float INITIAL_VELOCITY_STD = 300.0f;
+
+    private final float[] position = new float[NUM_COMPONENTS];
+    private final float[] velocity = new float[NUM_COMPONENTS];
+    // Covariance of every component: position variance, position-velocity covariance and velocity
+    // variance.
+    private final float[] positionVariance = new float[NUM_COMPONENTS];
+    private final float[] covariance = new float[NUM_COMPONENTS];
+    private final float[] velocityVariance = new float[NUM_COMPONENTS];
+    private long timestamp;
+    private final float[] measurement = new float[NUM_COMPONENTS];
+
+    /** Starts the filter at {@code box}, standing still. */
+    public void reset(final RectF box, final long timestampNs)
+    {
+        setMeasurement(box);
+        for (int i = 0; i < NUM_COMPONENTS; i++)
+        {
+            position[i] = measurement[i];
+            velocity[i] = 0.0f;
+            positionVariance[i] = MEASUREMENT_STD * MEASUREMENT_STD;
+            covariance[i] = 0.0f;
+            velocityVariance[i] = INITIAL_VELOCITY_STD * INITIAL_VELOCITY_STD;
+        }
+
+        timestamp = timestampNs;
+    }
+
+    /** Advances the filter to {@code timestampNs} and corrects it with the box observed then. */
+    public void update(final RectF box, final long timestampNs)
+    {
+        final float dt = Math.max(0L, timestampNs - timestamp) / 1e9f;
+        final float q = ACCELERATION_STD * ACCELERATION_STD;
+        final float r = MEASUREMENT_STD * MEASUREMENT_STD;
+        setMeasurement(box);
+
+        // Detections of older frames can arrive after newer observations; they are moved forward
+        // to the filter's time with the current velocity.
+        final float lag = Math.max(0L, timestamp - timestampNs) / 1e9f;
+        for (int i = 0; i < NUM_COMPONENTS; i++)
+        {
+            measurement[i] += velocity[i] * lag;
+        }
+
+        for (int i = 0; i < NUM_COMPONENTS; i++)
+        {
+            // Predict.
+            position[i] += velocity[i] * dt;
+            positionVariance[i] += dt * (2.0f * covariance[i] + dt * velocityVariance[i]) + q * dt * dt * dt / 3.0f;
+            covariance[i] += dt * velocityVariance[i] + q * dt * dt / 2.0f;
+            velocityVariance[i] += q * dt;
+
+            // Correct.
+            final float innovation = measurement[i] - position[i];
+            final float innovationVariance = positionVariance[i] + r;
+            final float positionGain = positionVariance[i] / innovationVariance;
+            final float velocityGain = covariance[i] / innovationVariance;
+            position[i] += positionGain * innovation;
+            velocity[i] += velocityGain * innovation;
+            velocityVariance[i] -= velocityGain * covariance[i];
+            positionVariance[i] -= positionGain * positionVariance[i];
+            covariance[i] -= positionGain * covariance[i];
+        }
+
+        timestamp = Math.max(timestamp, timestampNs);
+    }
+
+    /** Writes the box expected at {@code timestampNs} into {@code out}, without changing the filter. */
+    public void predict(final long timestampNs, final RectF out)
+    {
+        final float dt = (timestampNs - timestamp) / 1e9f;
+        final float centerX = position[CENTER_X] + velocity[CENTER_X] * dt;
+        final float centerY = position[CENTER_Y] + velocity[CENTER_Y] * dt;
+        final float halfWidth = Math.max(0.0f, position[WIDTH] + velocity[WIDTH] * dt) * 0.5f;
+        final float halfHeight = Math.max(0.0f, position[HEIGHT] + velocity[HEIGHT] * dt) * 0.5f;
+        out.set(centerX - halfWidth, centerY - halfHeight, centerX + halfWidth, centerY + halfHeight);
+    }
+
+    /** Moves {@code box} along by the filter's velocity for {@code seconds}. */
+    public void advance(final RectF box, final float seconds)
+    {
+        final float centerX = box.centerX() + velocity[CENTER_X] * seconds;
+        final float centerY = box.centerY() + velocity[CENTER_Y] * seconds;
+        final float halfWidth = Math.max(0.0f, box.width() + velocity[WIDTH] * seconds) * 0.5f;
+        final float halfHeight = Math.max(0.0f, box.height() + velocity[HEIGHT] * seconds) * 0.5f;
+        box.set(centerX - halfWidth, centerY - halfHeight, centerX + halfWidth, centerY + halfHeight);
+    }
+
+    private void setMeasurement(final RectF box)
+    {
+        measurement[CENTER_X] = box.centerX();
+        measurement[CENTER_Y] = box.centerY();
+        measurement[WIDTH] = box.width();
+        measurement[HEIGHT] = box.height();
+    }
+}
@@ -0,0 +1,99 @@
+package com.dogbreed.detector;
+
+import android.content.res.AssetManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Detector labels and dog breed names, read from the {@code labels.bin} asset that the build
+ * compiles out of the label text files. The file is memory-mapped once; the small index tables are
+ * copied into arrays up front, while the strings themselves are only decoded when first asked for.
+ */
+public class LabelBundle
+{
+    private static final int MAGIC = 0x4C424C31;
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer pool;
+    private final int[] stringEnds;
+    private final int[] outputBreeds;
+    private final int numDetectorLabels;
+    private final String[] strings;
+
+    private LabelBundle(final ByteBuffer data) throws IOException
+    {
+        if (data.getInt() != MAGIC || data.getInt() != VERSION)
+        {
+            throw new IOException("Unsupported label bundle");
+        }
+
+        numDetectorLabels = data.getInt();
+        final int numOutputs = data.getInt();
+        final int numBreeds = data.getInt();
+
+        stringEnds = new int[numDetectorLabels + numBreeds];
+        data.asIntBuffer().get(stringEnds);
+        data.position(data.position() + stringEnds.length * 4);
+
+        outputBreeds = new int[numOutputs];
+        data.asIntBuffer().get(outputBreeds);
+        data.position(data.position() + outputBreeds.length * 4);
+
+        pool = data.slice();
+        strings = new String[stringEnds.length];
+    }
+
+    public static LabelBundle load(final AssetManager assets, final String filename) throws IOException
+    {
+        return new LabelBundle(Utils.loadModelFile(assets, filename));
+    }
+
+    public int getNumDetectorLabels() {
+        return numDetectorLabels;
+    }
+
+    /** Number of MobileNet outputs, including the background class at index 0. */
+    public int getNumOutputs() {
+        return outputBreeds.length;
+    }
+
+    public int getNumBreeds() {
+        return stringEnds.length - numDetectorLabels;
+    }
+
+    /** Breed id of a MobileNet output index, or -1 if that class is not a dog. */
+    public int getBreedId(final int outputIndex) {
+        return outputIndex < outputBreeds.length ? outputBreeds[outputIndex] : -1;
+    }
+
+    public String getDetectorLabel(final int detectedClass) {
+        return getString(detectedClass);
+    }
+
+    public String getBreedName(final int breedId) {
+        return getString(numDetectorLabels + breedId);
+    }
+
+    private String getString(final int index)
+    {
+        // Strings are immutable, so a racing thread at worst decodes the same label twice.
+        String string = strings[index];
+        if (string == null)
+        {
+            final int start = index == 0 ? 0 : stringEnds[index - 1];
+            final byte[] bytes = new byte[stringEnds[index] - start];
+            for (int i = 0; i < bytes.length; i++)
+            {
+                bytes[i] = pool.get(start + i);
+            }
+
+            string = new String(bytes, UTF_8);
+            strings[index] = string;
+        }
+
+        return string;
+    }
+}
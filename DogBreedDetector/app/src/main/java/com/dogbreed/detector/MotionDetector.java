@@ -0,0 +1,130 @@
+package com.dogbreed.detector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides whether a frame is worth running detection on. Each frame's Y plane is reduced to a small
+ * thumbnail, which is compared block by block against the thumbnail of the last frame that was
+ * detected on, using the sum of absolute differences. Detection runs when any block changed by more
+ * than the threshold, or when the last detection is older than the staleness interval.
+ *
+ * <p>Comparing against the last detected frame rather than the previous one means slow movements
+ * add up until they are noticed.
+ */
+public class MotionDetector
+{
+    private static final int THUMBNAIL_WIDTH = 32;
+    private static final int THUMBNAIL_HEIGHT = 24;
+    private static final int BLOCK_SIZE = 4;
+    // Pixels sampled per thumbnail cell along each axis.
+    private static final int SAMPLES_PER_CELL = 4;
+
+    private final float threshold;
+    private final long maxStalenessNs;
+
+    private int[] reference = new int[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+    private int[] current = new int[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+    private boolean hasReference = false;
+    private long referenceTimestamp;
+
+    /**
+     * @param threshold mean absolute luma difference, in 0-255 units, that a block must exceed to
+     *     count as motion.
+     * @param maxStalenessMs detection runs at least this often, motion or not.
+     */
+    public MotionDetector(final float threshold, final long maxStalenessMs)
+    {
+        this.threshold = threshold;
+        this.maxStalenessNs = maxStalenessMs * 1000000L;
+    }
+
+    /**
+     * Returns true if detection should run on {@code frame}, in which case the frame becomes the new
+     * reference. Reads the Y plane in place.
+     */
+    public boolean shouldDetect(final YuvFrame frame)
+    {
+        computeThumbnail(frame, current);
+
+        final long timestamp = frame.getTimestamp();
+        if (!hasReference
+                || timestamp - referenceTimestamp >= maxStalenessNs
+                || timestamp < referenceTimestamp
+                || maxBlockDifference(reference, current) > threshold)
+        {
+            final int[] swap = reference;
+            reference = current;
+            current = swap;
+            referenceTimestamp = timestamp;
+            hasReference = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    /** Forgets the reference, so the next frame is always detected on. */
+    public void reset()
+    {
+        hasReference = false;
+    }
+
+    private static void computeThumbnail(final YuvFrame frame, final int[] thumbnail)
+    {
+        final ByteBuffer yPlane = frame.getYPlane();
+        final int rowStride = frame.getYRowStride();
+        final int cellWidth = Math.max(1, frame.getWidth() / THUMBNAIL_WIDTH);
+        final int cellHeight = Math.max(1, frame.getHeight() / THUMBNAIL_HEIGHT);
+        final int stepX = Math.max(1, cellWidth / SAMPLES_PER_CELL);
+        final int stepY = Math.max(1, cellHeight / SAMPLES_PER_CELL);
+        final int maxX = frame.getWidth() - 1;
+        final int maxY = frame.getHeight() - 1;
+
+        int index = 0;
+        for (int ty = 0; ty < THUMBNAIL_HEIGHT; ty++)
+        {
+            final int top = ty * cellHeight;
+            for (int tx = 0; tx < THUMBNAIL_WIDTH; tx++)
+            {
+                final int left = tx * cellWidth;
+                int sum = 0;
+                for (int sy = 0; sy < SAMPLES_PER_CELL; sy++)
+                {
+                    final int rowOffset = Math.min(maxY, top + sy * stepY) * rowStride;
+                    for (int sx = 0; sx < SAMPLES_PER_CELL; sx++)
+                    {
+                        sum += 0xff & yPlane.get(rowOffset + Math.min(maxX, left + sx * stepX));
+                    }
+                }
+
+                thumbnail[index++] = sum;
+            }
+        }
+    }
+
+    /** Largest mean absolute difference of any block, in 0-255 units. */
+    private static float maxBlockDifference(final int[] a, final int[] b)
+    {
+        int maxSad = 0;
+        for (int by = 0; by < THUMBNAIL_HEIGHT; by += BLOCK_SIZE)
+        {
+            for (int bx = 0; bx < THUMBNAIL_WIDTH; bx += BLOCK_SIZE)
+            {
+                int sad = 0;
+                for (int y = by; y < by + BLOCK_SIZE; y++)
+                {
+                    final int row = y * THUMBNAIL_WIDTH;
+                    for (int x = bx; x < bx + BLOCK_SIZE; x++)
+                    {
+                        sad += Math.abs(a[row + x] - b[row + x]);
+                    }
+                }
+
+                maxSad = Math.max(maxSad, sad);
+            }
+        }
+
+        // Thumbnail cells hold sums of samples, blocks hold sums of cells.
+        return maxSad / (float) (BLOCK_SIZE * BLOCK_SIZE * SAMPLES_PER_CELL * SAMPLES_PER_CELL);
+    }
+}
@@ -11,19 +11,53 @@ import android.graphics.Paint.Join;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.text.TextUtils;
-import android.util.Pair;
+import android.util.Log;
 import android.util.TypedValue;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 
-/** A tracker that handles non-max suppression and matches existing objects to new detections. */
-public class MultiBoxTracker
+/**
+ * A tracker that handles non-max suppression and matches existing objects to new detections.
+ * Between detections, every camera frame moves the tracked boxes along with the image through
+ * {@link OpticalFlowTracker}, and detection is only asked for every few frames or when tracking
+ * gets unreliable. Tracks remember the breed they were last classified as, which the classifier
+ * reuses through {@link BreedCache} until the box changes too much or the breed gets too old.
+ *
+ * <p>Tracks live in a {@link TrackTable} and keep their id for as long as they are matched; the
+ * id picks their color. Tracking results, following frames and drawing reuse the same scratch
+ * buffers every time.
+ *
+ * <p>Drawing can extrapolate every box with its track's motion filter to the display's frame time,
+ * from the capture time of the camera frame the box was last placed on. Boxes then move at the
+ * display's rate instead of jumping whenever a detection or a tracked frame comes in.
+ */
+public class MultiBoxTracker implements BreedCache, FrameTracker
 {
     private static final float TEXT_SIZE_DIP = 18;
     private static final float MIN_SIZE = 16.0f;
-    private static final float BOX_TOLERANCE_X = 50.0f;
-    private static final float BOX_TOLERANCE_Y = 50.0f;
+
+    // Detections are matched to the box each track's motion filter predicts for the detection's
+    // frame. Track centres are indexed in a grid of this cell size, in frame pixels, so that
+    // matching only compares neighbours.
+    private static final float DEFAULT_SPATIAL_GRID_CELL_SIZE = 128.0f;
+
+    // A cached breed is reused while the box overlaps the one it was classified on by at least this
+    // much and its area changed by less than the given ratio.
+    private static final float BREED_REUSE_MIN_IOU = 0.6f;
+    private static final float BREED_REUSE_MIN_AREA_RATIO = 0.75f;
+    private static final long DEFAULT_BREED_REFRESH_MS = 3000;
+
+    // Detection is asked for when the flow of any track is less reliable than this, or at the
+    // latest after the detection interval.
+    private static final float MIN_TRACKING_CONFIDENCE = 0.5f;
+    private static final int DEFAULT_DETECTION_INTERVAL = 5;
+
+    // A track that isn't matched by more detections in a row than this is dropped. Until then it is
+    // hidden but can still be matched, so a dog that is missed once keeps its identity.
+    private static final int MAX_MISSED_DETECTIONS = 1;
+
+    // Boxes are extrapolated at most this far past the frame they were placed on, so a track that
+    // stops being updated doesn't fly off.
+    private static final long MAX_EXTRAPOLATION_MS = 200;
 
     private static final int[] COLORS =
     {
@@ -45,24 +79,52 @@ public class MultiBoxTracker
     };
 
     private final Logger logger = new Logger();
-    private final Queue<Integer> availableColors = new LinkedList<Integer>();
-    private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
-    private List<TrackedRecognition> oldTrackedObjects = new LinkedList<>();
+    private final TrackTable tracks = new TrackTable();
     private final Paint boxPaint = new Paint();
     private final float textSizePx;
     private final BorderedText borderedText;
-    private Matrix frameToCanvasMatrix;
+    // Rebuilt only when the canvas size or the frame configuration changes.
+    private final Matrix frameToCanvasMatrix = new Matrix();
+    private int matrixCanvasWidth = -1;
+    private int matrixCanvasHeight = -1;
+    private final StringBuilder labelBuilder = new StringBuilder();
     private int frameWidth;
     private int frameHeight;
     private int sensorOrientation;
+    private long breedRefreshNs = DEFAULT_BREED_REFRESH_MS * 1000000L;
+    private final RectF drawLocation = new RectF();
+    private final RectF lookupLocation = new RectF();
+    private FrameClock frameClock;
+    // Whether the last draw showed any box, so that one more draw clears them.
+    private boolean drewTracks = false;
+    private volatile Listener listener;
+
+    // Association scratch, grown as needed.
+    private TrackAssociator trackAssociator = new TrackAssociator(DEFAULT_SPATIAL_GRID_CELL_SIZE);
+    private final RectF predictedLocation = new RectF();
+    private int[] detections = new int[0];
+    private float[] detectionBoxes = new float[0];
+    private float[] predictedBoxes = new float[0];
+    private int[] trackSlots = new int[0];
+    private int[] matchedSlots = new int[0];
+
+    // Only touched from the thread that calls onFrame. The boxes of the visible tracks are copied
+    // to flowBoxes, tracked into trackedBoxes, and copied back.
+    private final OpticalFlowTracker opticalFlowTracker = new OpticalFlowTracker();
+    private final RectF trackedLocation = new RectF();
+    private final RectF previousLocation = new RectF();
+    private final RectF flowLocation = new RectF();
+    private final RectF breedLocation = new RectF();
+    private int[] flowSlots = new int[0];
+    private int[] flowIds = new int[0];
+    private float[] flowConfidences = new float[0];
+    private float[] flowBoxes = new float[0];
+    private float[] trackedBoxes = new float[0];
+    private int detectionInterval = DEFAULT_DETECTION_INTERVAL;
+    private int framesSinceDetection = 0;
 
     public MultiBoxTracker(final Context context)
     {
-        for (final int color : COLORS)
-        {
-            availableColors.add(color);
-        }
-
         boxPaint.setColor(Color.RED);
         boxPaint.setStyle(Style.STROKE);
         boxPaint.setStrokeWidth(10.0f);
@@ -79,46 +141,341 @@ public class MultiBoxTracker
         frameWidth = width;
         frameHeight = height;
         this.sensorOrientation = sensorOrientation;
+        matrixCanvasWidth = -1;
+    }
+
+    /**
+     * Matches the recognitions of one frame to the tracks. Nothing of {@code results} is kept apart
+     * from the breed results, so the caller may reuse the list.
+     *
+     * @param results recognitions in frame coordinates; should be a random access list.
+     * @param timestamp capture timestamp of the frame, in nanoseconds.
+     */
+    public void trackResults(final List<Classifier.Recognition> results, final long timestamp)
+    {
+        synchronized (this)
+        {
+            if (logger.isLoggable(Log.VERBOSE))
+            {
+                logger.v("Processing %d results from %d", results.size(), timestamp);
+            }
+
+            processResults(results, timestamp);
+        }
+
+        notifyTracksUpdated();
+    }
+
+    /** Sets how long a track's breed is reused before the dog is classified again. */
+    public synchronized void setBreedRefreshInterval(final long refreshMs)
+    {
+        breedRefreshNs = refreshMs * 1000000L;
+    }
+
+    /** Sets after how many frames detection runs again, however well the boxes are tracked. */
+    public synchronized void setDetectionInterval(final int frames)
+    {
+        detectionInterval = frames;
+    }
+
+    /**
+     * Sets the cell size of the grid that track centres are indexed in for matching, in frame
+     * pixels. About the size of a typical box works best; zero compares every detection with every
+     * track.
+     */
+    public synchronized void setSpatialGridCellSize(final float cellSize)
+    {
+        trackAssociator = new TrackAssociator(cellSize);
+    }
+
+    /** Told when the tracks changed, on the thread that changed them. */
+    public interface Listener
+    {
+        void onTracksUpdated();
+    }
+
+    /** Sets the listener told after every detection and every tracked frame, or null. */
+    public void setListener(final Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    private void notifyTracksUpdated()
+    {
+        final Listener current = listener;
+        if (current != null)
+        {
+            current.onTracksUpdated();
+        }
+    }
+
+    /**
+     * Sets the clock that relates camera timestamps to display frame times. Without one, boxes are
+     * drawn where they were last placed.
+     */
+    public synchronized void setFrameClock(final FrameClock clock)
+    {
+        frameClock = clock;
+    }
+
+    /** Returns true while a draw would show boxes, or would clear the ones drawn last. */
+    public synchronized boolean needsRedraw()
+    {
+        if (drewTracks)
+        {
+            return true;
+        }
+
+        for (int i = 0; i < tracks.size(); i++)
+        {
+            if (tracks.missedDetections[tracks.slotAt(i)] == 0)
+            {
+                return true;
+            }
+        }
+
+        return false;
     }
 
-    public synchronized void trackResults(final List<Classifier.Recognition> results, final long timestamp)
+    @Override
+    public boolean onFrame(final YuvFrame frame)
     {
-        logger.i("Processing %d results from %d", results.size(), timestamp);
-        processResults(results);
+        // The pyramid is built and the boxes are tracked outside the lock, so drawing doesn't wait
+        // for optical flow; the boxes are only copied out and back under it.
+        opticalFlowTracker.setFrame(frame);
+
+        final int numFlows;
+        synchronized (this)
+        {
+            numFlows = copyFlowBoxes();
+        }
+
+        float minConfidence = 1.0f;
+        for (int i = 0; i < numFlows; i++)
+        {
+            GetBox(flowBoxes, i, trackedLocation);
+            flowConfidences[i] = opticalFlowTracker.track(trackedLocation);
+            minConfidence = Math.min(minConfidence, flowConfidences[i]);
+            SetBox(trackedBoxes, i, trackedLocation);
+        }
+
+        final boolean detect;
+        synchronized (this)
+        {
+            applyFlows(numFlows, frame.getTimestamp());
+
+            framesSinceDetection++;
+            detect = numFlows == 0
+                    || minConfidence < MIN_TRACKING_CONFIDENCE
+                    || framesSinceDetection >= detectionInterval;
+            if (detect)
+            {
+                framesSinceDetection = 0;
+            }
+        }
+
+        if (numFlows > 0)
+        {
+            notifyTracksUpdated();
+        }
+
+        return detect;
+    }
+
+    /** Copies the boxes of the visible tracks to the flow scratch arrays and returns their number. */
+    private int copyFlowBoxes()
+    {
+        if (flowSlots.length < tracks.ids.length)
+        {
+            flowSlots = new int[tracks.ids.length];
+            flowIds = new int[tracks.ids.length];
+            flowConfidences = new float[tracks.ids.length];
+            flowBoxes = new float[4 * tracks.ids.length];
+            trackedBoxes = new float[4 * tracks.ids.length];
+        }
+
+        int numFlows = 0;
+        for (int i = 0; i < tracks.size(); i++)
+        {
+            final int slot = tracks.slotAt(i);
+            if (tracks.missedDetections[slot] > 0)
+            {
+                continue;
+            }
+
+            flowSlots[numFlows] = slot;
+            flowIds[numFlows] = tracks.ids[slot];
+            GetLocation(tracks, slot, trackedLocation);
+            SetBox(flowBoxes, numFlows, trackedLocation);
+            numFlows++;
+        }
+
+        return numFlows;
+    }
+
+    /**
+     * Moves the tracks along with the flow tracked outside the lock. Tracks that ended or were
+     * hidden meanwhile are skipped. A track that a detection updated meanwhile is moved the way
+     * the flow moved its old box, so the detection isn't lost.
+     */
+    private void applyFlows(final int numFlows, final long timestamp)
+    {
+        for (int i = 0; i < numFlows; i++)
+        {
+            final int slot = flowSlots[i];
+            if (!tracks.isLive(slot) || tracks.ids[slot] != flowIds[i] || tracks.missedDetections[slot] > 0)
+            {
+                continue;
+            }
+
+            GetBox(flowBoxes, i, previousLocation);
+            GetBox(trackedBoxes, i, trackedLocation);
+            GetLocation(tracks, slot, flowLocation);
+            FollowLocation(flowLocation, previousLocation, trackedLocation);
+            SetLocation(tracks, slot, flowLocation);
+            tracks.locationTimestamp[slot] = timestamp;
+            if (flowConfidences[i] >= MIN_TRACKING_CONFIDENCE)
+            {
+                // Reliable flow refines the velocity between detections.
+                tracks.motion[slot].update(flowLocation, timestamp);
+            }
+
+            if (tracks.breed[slot] != null)
+            {
+                // The box the breed was classified on moves along, so it still matches the dog.
+                GetBreedLocation(tracks, slot, breedLocation);
+                FollowLocation(breedLocation, previousLocation, trackedLocation);
+                SetBreedLocation(tracks, slot, breedLocation);
+            }
+        }
+    }
+
+    /**
+     * Reuses the breed of the track the box belongs to: the visible track whose predicted box for
+     * the frame overlaps it most, as matching would pick it. Only that track's breed is considered,
+     * so with overlapping dogs one doesn't take over the other's breed.
+     */
+    @Override
+    public synchronized BreedResult lookup(
+            final float left, final float top, final float right, final float bottom, final long timestamp)
+    {
+        int bestSlot = -1;
+        float bestIou = 0.0f;
+        for (int i = 0; i < tracks.size(); i++)
+        {
+            final int slot = tracks.slotAt(i);
+            if (tracks.missedDetections[slot] > 0)
+            {
+                continue;
+            }
+
+            tracks.motion[slot].predict(timestamp, lookupLocation);
+            final float iou = Iou(
+                    left, top, right, bottom,
+                    lookupLocation.left, lookupLocation.top, lookupLocation.right, lookupLocation.bottom);
+            if (iou > bestIou)
+            {
+                bestSlot = slot;
+                bestIou = iou;
+            }
+        }
+
+        if (bestSlot == -1)
+        {
+            return null;
+        }
+
+        final BreedResult breed = tracks.breed[bestSlot];
+        if (breed == null)
+        {
+            return null;
+        }
+
+        final long age = timestamp - breed.getTimestamp();
+        if (age < 0 || age > breedRefreshNs)
+        {
+            return null;
+        }
+
+        final float classifiedLeft = tracks.breedLeft[bestSlot];
+        final float classifiedTop = tracks.breedTop[bestSlot];
+        final float classifiedRight = tracks.breedRight[bestSlot];
+        final float classifiedBottom = tracks.breedBottom[bestSlot];
+        final float area = (right - left) * (bottom - top);
+        final float classifiedArea = (classifiedRight - classifiedLeft) * (classifiedBottom - classifiedTop);
+        if (Math.min(area, classifiedArea) < BREED_REUSE_MIN_AREA_RATIO * Math.max(area, classifiedArea))
+        {
+            return null;
+        }
+
+        final float iou = Iou(left, top, right, bottom, classifiedLeft, classifiedTop, classifiedRight, classifiedBottom);
+        return iou >= BREED_REUSE_MIN_IOU ? breed : null;
     }
 
-    private Matrix getFrameToCanvasMatrix() {
+    private Matrix getFrameToCanvasMatrix(final Canvas canvas)
+    {
+        if (canvas.getWidth() != matrixCanvasWidth || canvas.getHeight() != matrixCanvasHeight)
+        {
+            matrixCanvasWidth = canvas.getWidth();
+            matrixCanvasHeight = canvas.getHeight();
+            final boolean rotated = sensorOrientation % 180 == 90;
+            final float multiplier = Math.min(
+                                    matrixCanvasHeight / (float) (rotated ? frameWidth : frameHeight),
+                                    matrixCanvasWidth / (float) (rotated ? frameHeight : frameWidth));
+            frameToCanvasMatrix.set(ImageUtils.getTransformationMatrix(
+                            frameWidth,
+                            frameHeight,
+                            (int) (multiplier * (rotated ? frameHeight : frameWidth)),
+                            (int) (multiplier * (rotated ? frameWidth : frameHeight)),
+                            sensorOrientation,
+                            false));
+        }
+
         return frameToCanvasMatrix;
     }
 
+    /** Draws the boxes where they were last placed. */
     public synchronized void draw(final Canvas canvas)
     {
-        final boolean rotated = sensorOrientation % 180 == 90;
-        final float multiplier = Math.min(
-                                canvas.getHeight() / (float) (rotated ? frameWidth : frameHeight),
-                                canvas.getWidth() / (float) (rotated ? frameHeight : frameWidth));
-        frameToCanvasMatrix = ImageUtils.getTransformationMatrix(
-                        frameWidth,
-                        frameHeight,
-                        (int) (multiplier * (rotated ? frameHeight : frameWidth)),
-                        (int) (multiplier * (rotated ? frameWidth : frameHeight)),
-                        sensorOrientation,
-                        false);
+        draw(canvas, 0);
+    }
 
-        for (final TrackedRecognition recognition : trackedObjects)
+    /**
+     * Draws the boxes, each moved on by its track's velocity to {@code frameTimeNanos}.
+     *
+     * @param frameTimeNanos time the drawn frame is shown, in the {@link System#nanoTime()} base as
+     *     given by {@link android.view.Choreographer}; 0 draws without extrapolating.
+     */
+    public synchronized void draw(final Canvas canvas, final long frameTimeNanos)
+    {
+        final boolean extrapolate = frameTimeNanos > 0 && frameClock != null && frameClock.isCalibrated();
+        final Matrix frameToCanvas = getFrameToCanvasMatrix(canvas);
+        drewTracks = false;
+        for (int i = 0; i < tracks.size(); i++)
         {
-            final RectF trackedPos = new RectF(recognition.location);
+            final int slot = tracks.slotAt(i);
+            if (tracks.missedDetections[slot] > 0)
+            {
+                continue;
+            }
 
-            getFrameToCanvasMatrix().mapRect(trackedPos);
-            boxPaint.setColor(recognition.color);
+            drewTracks = true;
+            final RectF trackedPos = drawLocation;
+            GetLocation(tracks, slot, trackedPos);
+            if (extrapolate)
+            {
+                final long ageNs = frameTimeNanos - frameClock.toNanoTime(tracks.locationTimestamp[slot]);
+                final long horizonNs = Math.min(Math.max(0L, ageNs), MAX_EXTRAPOLATION_MS * 1000000L);
+                tracks.motion[slot].advance(trackedPos, horizonNs / 1e9f);
+            }
+
+            frameToCanvas.mapRect(trackedPos);
+            boxPaint.setColor(COLORS[tracks.ids[slot] % COLORS.length]);
 
             float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 8.0f;
             canvas.drawRoundRect(trackedPos, cornerSize, cornerSize, boxPaint);
 
-            final String labelString =
-                    !TextUtils.isEmpty(recognition.title)
-                            ? String.format("%s %.2f", recognition.title, (100 * recognition.detectionConfidence))
-                            : String.format("%.2f", (100 * recognition.detectionConfidence));
+            updateLabel(slot);
 
             float textPosX = trackedPos.left > 0.0 ? trackedPos.left : 0.0f;
             float textPosY = trackedPos.top > 0.0 ? trackedPos.top : 0.0f;
@@ -127,122 +484,288 @@ public class MultiBoxTracker
                 textPosY = trackedPos.bottom;
             }
 
-            borderedText.drawText(canvas, textPosX + cornerSize, textPosY, labelString + "%", boxPaint);
+            borderedText.drawText(
+                    canvas, textPosX + cornerSize, textPosY, tracks.label[slot], tracks.labelWidth[slot], boxPaint);
         }
     }
 
-    private void processResults(final List<Classifier.Recognition> results)
+    /**
+     * Rebuilds the label of the track in {@code slot} if its title or its confidence, to the two
+     * decimals shown, changed since the label was built.
+     */
+    private void updateLabel(final int slot)
     {
-        final List<Pair<Float, Classifier.Recognition>> rectsToTrack = new LinkedList<Pair<Float, Classifier.Recognition>>();
-        for (final Classifier.Recognition result : results)
+        final String title = tracks.title[slot];
+        final int confidence = Math.round(10000 * tracks.detectionConfidence[slot]);
+        if (tracks.label[slot] != null
+                && tracks.labelConfidence[slot] == confidence
+                && TextUtils.equals(tracks.labelTitle[slot], title))
         {
-            if (result.getLocation() == null)
+            return;
+        }
+
+        // Same text as String.format("%s %.2f%%", title, 100 * confidence).
+        labelBuilder.setLength(0);
+        if (!TextUtils.isEmpty(title))
+        {
+            labelBuilder.append(title).append(' ');
+        }
+
+        labelBuilder.append(confidence / 100).append('.');
+        if (confidence % 100 < 10)
+        {
+            labelBuilder.append('0');
+        }
+
+        labelBuilder.append(confidence % 100).append('%');
+
+        tracks.label[slot] = labelBuilder.toString();
+        tracks.labelWidth[slot] = borderedText.measureText(tracks.label[slot]);
+        tracks.labelTitle[slot] = title;
+        tracks.labelConfidence[slot] = confidence;
+    }
+
+    private void processResults(final List<Classifier.Recognition> results, final long timestamp)
+    {
+        if (detections.length < results.size())
+        {
+            detections = new int[2 * results.size()];
+        }
+
+        int numDetections = 0;
+        for (int ii = 0; ii < results.size(); ii++)
+        {
+            final RectF location = results.get(ii).peekLocation();
+            if (location == null)
             {
                 continue;
             }
 
-            final RectF detectionFrameRect = new RectF(result.getLocation());
-            if (detectionFrameRect.width() < MIN_SIZE || detectionFrameRect.height() < MIN_SIZE)
+            if (location.width() < MIN_SIZE || location.height() < MIN_SIZE)
             {
-                logger.w("Degenerate rectangle! " + detectionFrameRect);
+                if (logger.isLoggable(Log.WARN))
+                {
+                    logger.w("Degenerate rectangle! " + location);
+                }
+
                 continue;
             }
 
-            rectsToTrack.add(new Pair<Float, Classifier.Recognition>(result.getConfidence(), result));
+            detections[numDetections++] = ii;
         }
 
-        if(trackedObjects.size() > 0)
-            oldTrackedObjects = new LinkedList<>(trackedObjects);
-
-        trackedObjects.clear();
+        // Every track is matched against before any is added or removed, which reorders them.
+        matchTracks(results, numDetections, timestamp);
 
-        if (rectsToTrack.isEmpty())
+        for (int ii = 0; ii < tracks.size(); ii++)
         {
-            logger.v("Nothing to track, aborting.");
-            return;
+            tracks.missedDetections[tracks.slotAt(ii)]++;
         }
 
-        for (final Pair<Float, Classifier.Recognition> potential : rectsToTrack)
+        for (int ii = 0; ii < numDetections; ii++)
         {
-            TrackedRecognition trackedRecognition = new TrackedRecognition();
-
-            final int similarBoxIndex = GetSimilarBoxByLocation(potential.second, oldTrackedObjects);
-            if (similarBoxIndex != -1)
+            final Classifier.Recognition recognition = results.get(detections[ii]);
+            if (matchedSlots[ii] != -1)
             {
-                TrackedRecognition oldRecognition = oldTrackedObjects.get(similarBoxIndex);
-                trackedRecognition = UpdateExistingTrackedentry(oldRecognition, potential);
+                UpdateExistingTrackedentry(tracks, matchedSlots[ii], recognition, timestamp, predictedLocation);
             }
             else
             {
-                trackedRecognition = CreateNewTrackedEntry(potential);
-                trackedRecognition.color = COLORS[trackedObjects.size()];
+                CreateNewTrackedEntry(tracks, tracks.add(), recognition, timestamp);
             }
+        }
 
-            trackedObjects.add(trackedRecognition);
-
-            if (trackedObjects.size() >= COLORS.length)
+        // Removing swaps the last track into the removed one's place, which was already checked.
+        for (int ii = tracks.size() - 1; ii >= 0; ii--)
+        {
+            final int slot = tracks.slotAt(ii);
+            if (tracks.missedDetections[slot] > MAX_MISSED_DETECTIONS)
             {
-                break;
+                trackAssociator.removeTrack(slot);
+                tracks.remove(slot);
             }
         }
     }
 
-    private static TrackedRecognition UpdateExistingTrackedentry(TrackedRecognition existingEntry, final Pair<Float, Classifier.Recognition> recognition)
+    /**
+     * Matches detections to the tracks with the lowest total cost. Leaves, for every detection, the
+     * slot of its track in {@link #matchedSlots}, or -1 if it starts a new one.
+     */
+    private void matchTracks(final List<Classifier.Recognition> results, final int numDetections, final long timestamp)
     {
-        TrackedRecognition trackedRecognition = existingEntry;
-        trackedRecognition.detectionConfidence = Math.max(recognition.first, existingEntry.detectionConfidence);
+        final int numTracks = tracks.size();
+        if (detectionBoxes.length < 4 * numDetections)
+        {
+            detectionBoxes = new float[8 * numDetections];
+            matchedSlots = new int[2 * numDetections];
+        }
 
-        if (recognition.second.getBreedName() != null)
+        if (predictedBoxes.length < 4 * tracks.ids.length)
         {
-            trackedRecognition.title = recognition.second.getBreedName();
+            predictedBoxes = new float[4 * tracks.ids.length];
+            trackSlots = new int[tracks.ids.length];
         }
 
-        return trackedRecognition;
+        for (int track = 0; track < numTracks; track++)
+        {
+            final int slot = tracks.slotAt(track);
+            tracks.motion[slot].predict(timestamp, predictedLocation);
+            trackSlots[track] = slot;
+            SetBox(predictedBoxes, slot, predictedLocation);
+        }
+
+        for (int detection = 0; detection < numDetections; detection++)
+        {
+            SetBox(detectionBoxes, detection, results.get(detections[detection]).peekLocation());
+        }
+
+        trackAssociator.associate(predictedBoxes, trackSlots, numTracks, detectionBoxes, numDetections, matchedSlots);
     }
 
-    private static TrackedRecognition CreateNewTrackedEntry(final Pair<Float, Classifier.Recognition> recognition)
+    /**
+     * Updates a matched track with its detection. Detections arrive a few frames after their
+     * capture, and by then optical flow has already moved the track on to a newer frame. The
+     * detection box is not stored as it is then, since flow would carry on from it as if it were
+     * current and the lag would stay. The motion filter instead moves it forward to the newer frame
+     * and blends it with the flow-tracked box, and the track takes the filter's box for that frame.
+     *
+     * @param location scratch rectangle.
+     */
+    private static void UpdateExistingTrackedentry(
+            final TrackTable tracks,
+            final int slot,
+            final Classifier.Recognition recognition,
+            final long timestamp,
+            final RectF location)
     {
-        TrackedRecognition trackedRecognition = new TrackedRecognition();
-        trackedRecognition.detectionConfidence = recognition.first;
-        trackedRecognition.location = new RectF(recognition.second.getLocation());
-        if (recognition.second.getBreedName() != null)
+        tracks.detectionConfidence[slot] = Math.max(recognition.getConfidence(), tracks.detectionConfidence[slot]);
+        tracks.missedDetections[slot] = 0;
+        tracks.motion[slot].update(recognition.peekLocation(), timestamp);
+        if (tracks.locationTimestamp[slot] > timestamp)
         {
-            trackedRecognition.title = recognition.second.getBreedName();
+            tracks.motion[slot].predict(tracks.locationTimestamp[slot], location);
         }
         else
         {
-            trackedRecognition.title = recognition.second.getTitle();
+            location.set(recognition.peekLocation());
+            tracks.locationTimestamp[slot] = timestamp;
+        }
+
+        SetLocation(tracks, slot, location);
+
+        if (recognition.getBreedName() != null)
+        {
+            tracks.title[slot] = recognition.getBreedName();
         }
 
-        return trackedRecognition;
+        UpdateBreed(tracks, slot, recognition, location);
     }
 
-    private static int GetSimilarBoxByLocation(final Classifier.Recognition newRecognition, final List<TrackedRecognition> oldTrackedObjects)
+    /**
+     * Starts a track on a detection. Nothing is known yet about how the dog moved since the
+     * detection's frame, so the box stays where it was detected. The next matched detection moves
+     * it forward once the filter has a velocity.
+     */
+    private static void CreateNewTrackedEntry(
+            final TrackTable tracks, final int slot, final Classifier.Recognition recognition, final long timestamp)
     {
-        final RectF newLocation = newRecognition.getLocation();
-        final float centerX = newLocation.centerX();
-        final float centerY = newLocation.centerY();
+        tracks.detectionConfidence[slot] = recognition.getConfidence();
+        SetLocation(tracks, slot, recognition.peekLocation());
+        tracks.locationTimestamp[slot] = timestamp;
+        tracks.motion[slot].reset(recognition.peekLocation(), timestamp);
+        if (recognition.getBreedName() != null)
+        {
+            tracks.title[slot] = recognition.getBreedName();
+        }
+        else
+        {
+            tracks.title[slot] = recognition.getTitle();
+        }
+
+        UpdateBreed(tracks, slot, recognition, recognition.peekLocation());
+    }
 
-        for(int ii = 0; ii < oldTrackedObjects.size(); ii++)
+    /** @param location the track's box, as just stored. */
+    private static void UpdateBreed(
+            final TrackTable tracks, final int slot, final Classifier.Recognition recognition, final RectF location)
+    {
+        final BreedResult breed = recognition.getBreedResult();
+        if (breed == null)
         {
-            final TrackedRecognition oldObject = oldTrackedObjects.get(ii);
-            final float oldCenterX = oldObject.location.centerX();
-            final float oldCenterY = oldObject.location.centerY();
-            final float distanceX = Math.abs(centerX - oldCenterX);
-            final float distanceY = Math.abs(centerY - oldCenterY);
-            if (distanceX < BOX_TOLERANCE_X && distanceY < BOX_TOLERANCE_Y)
-            {
-                return ii;
-            }
+            return;
         }
 
-        return -1;
+        // A freshly classified breed restarts the cache entry from the current box; a reused one
+        // keeps the box it was classified on, so drift is measured from there.
+        if (tracks.breed[slot] == null || tracks.breed[slot].getTimestamp() != breed.getTimestamp())
+        {
+            tracks.breed[slot] = breed;
+            SetBreedLocation(tracks, slot, location);
+        }
     }
 
-    private static class TrackedRecognition {
-        RectF location;
-        float detectionConfidence;
-        int color;
-        String title;
+    private static float Iou(
+            final float left, final float top, final float right, final float bottom,
+            final float otherLeft, final float otherTop, final float otherRight, final float otherBottom)
+    {
+        final float width = Math.min(right, otherRight) - Math.max(left, otherLeft);
+        final float height = Math.min(bottom, otherBottom) - Math.max(top, otherTop);
+        if (width <= 0 || height <= 0)
+        {
+            return 0.0f;
+        }
+
+        final float intersection = width * height;
+        return intersection / ((right - left) * (bottom - top) + (otherRight - otherLeft) * (otherBottom - otherTop) - intersection);
+    }
+
+    private static void GetBox(final float[] boxes, final int index, final RectF out)
+    {
+        out.set(boxes[4 * index], boxes[4 * index + 1], boxes[4 * index + 2], boxes[4 * index + 3]);
+    }
+
+    private static void SetBox(final float[] boxes, final int index, final RectF box)
+    {
+        boxes[4 * index] = box.left;
+        boxes[4 * index + 1] = box.top;
+        boxes[4 * index + 2] = box.right;
+        boxes[4 * index + 3] = box.bottom;
+    }
+
+    private static void GetLocation(final TrackTable tracks, final int slot, final RectF out)
+    {
+        out.set(tracks.left[slot], tracks.top[slot], tracks.right[slot], tracks.bottom[slot]);
+    }
+
+    private static void SetLocation(final TrackTable tracks, final int slot, final RectF location)
+    {
+        tracks.left[slot] = location.left;
+        tracks.top[slot] = location.top;
+        tracks.right[slot] = location.right;
+        tracks.bottom[slot] = location.bottom;
+    }
+
+    private static void GetBreedLocation(final TrackTable tracks, final int slot, final RectF out)
+    {
+        out.set(tracks.breedLeft[slot], tracks.breedTop[slot], tracks.breedRight[slot], tracks.breedBottom[slot]);
+    }
+
+    private static void SetBreedLocation(final TrackTable tracks, final int slot, final RectF location)
+    {
+        tracks.breedLeft[slot] = location.left;
+        tracks.breedTop[slot] = location.top;
+        tracks.breedRight[slot] = location.right;
+        tracks.breedBottom[slot] = location.bottom;
+    }
+
+    /** Moves and scales {@code rect} the way {@code from} was moved and scaled into {@code to}. */
+    private static void FollowLocation(final RectF rect, final RectF from, final RectF to)
+    {
+        final float scale = from.width() > 0 ? to.width() / from.width() : 1.0f;
+        final float centerX = to.centerX() + (rect.centerX() - from.centerX()) * scale;
+        final float centerY = to.centerY() + (rect.centerY() - from.centerY()) * scale;
+        final float halfWidth = rect.width() * scale * 0.5f;
+        final float halfHeight = rect.height() * scale * 0.5f;
+        rect.set(centerX - halfWidth, centerY - halfHeight, centerX + halfWidth, centerY + halfHeight);
     }
 }
@@ -0,0 +1,156 @@
+package com.dogbreed.detector;
+
+import java.util.Arrays;
+
+/**
+ * Greedy non-maximum suppression over a {@link DetectionCandidates} store. Candidates are sorted by
+ * score once, box areas are computed once, and suppression is a single pass over that order, so
+ * there is no per-class queue or re-sorting after every pick.
+ *
+ * <p>Boxes normally only suppress boxes of their own class. Classes registered with {@link
+ * #setMergedClasses} are treated as one class instead, so an animal that the detector also scores
+ * as a similar class is kept only once.
+ */
+public class NonMaxSuppressor
+{
+    private final float iouThreshold;
+
+    private boolean[] isMergedClass = new boolean[0];
+    private long[] order = new long[0];
+    private float[] areas = new float[0];
+    private boolean[] suppressed = new boolean[0];
+    private boolean[] keep = new boolean[0];
+
+    /**
+     * @param iouThreshold a box is suppressed when its IoU with a higher scoring box of the same
+     *     class reaches this value.
+     */
+    public NonMaxSuppressor(final float iouThreshold)
+    {
+        this.iouThreshold = iouThreshold;
+    }
+
+    /**
+     * Makes suppression class-agnostic across the given classes. Pass null to go back to strict
+     * per-class suppression.
+     */
+    public void setMergedClasses(final int[] classes)
+    {
+        if (classes == null)
+        {
+            isMergedClass = new boolean[0];
+            return;
+        }
+
+        int maxClass = -1;
+        for (final int c : classes)
+        {
+            maxClass = Math.max(maxClass, c);
+        }
+
+        isMergedClass = new boolean[maxClass + 1];
+        for (final int c : classes)
+        {
+            if (c >= 0)
+            {
+                isMergedClass[c] = true;
+            }
+        }
+    }
+
+    /** Removes every suppressed candidate from {@code candidates}. */
+    public void apply(final DetectionCandidates candidates)
+    {
+        final int count = candidates.size();
+        if (count < 2)
+        {
+            return;
+        }
+
+        ensureCapacity(count);
+
+        // Scores are positive, so their raw bits sort like the floats themselves. Packing the index
+        // into the low bits lets a primitive sort order the candidates without boxing.
+        for (int i = 0; i < count; i++)
+        {
+            order[i] = ((long) Float.floatToIntBits(candidates.getScore(i)) << 32) | i;
+            areas[i] = (candidates.getRight(i) - candidates.getLeft(i))
+                    * (candidates.getBottom(i) - candidates.getTop(i));
+        }
+
+        Arrays.sort(order, 0, count);
+        Arrays.fill(suppressed, 0, count, false);
+        Arrays.fill(keep, 0, count, false);
+
+        for (int a = count - 1; a >= 0; a--)
+        {
+            final int i = (int) order[a];
+            if (suppressed[i])
+            {
+                continue;
+            }
+
+            keep[i] = true;
+            final int classI = candidates.getDetectedClass(i);
+            final float left = candidates.getLeft(i);
+            final float top = candidates.getTop(i);
+            final float right = candidates.getRight(i);
+            final float bottom = candidates.getBottom(i);
+            final float area = areas[i];
+
+            for (int b = a - 1; b >= 0; b--)
+            {
+                final int j = (int) order[b];
+                if (suppressed[j] || !sameGroup(classI, candidates.getDetectedClass(j)))
+                {
+                    continue;
+                }
+
+                final float width = Math.min(right, candidates.getRight(j)) - Math.max(left, candidates.getLeft(j));
+                if (width <= 0)
+                {
+                    continue;
+                }
+
+                final float height = Math.min(bottom, candidates.getBottom(j)) - Math.max(top, candidates.getTop(j));
+                if (height <= 0)
+                {
+                    continue;
+                }
+
+                final float intersection = width * height;
+                if (intersection >= iouThreshold * (area + areas[j] - intersection))
+                {
+                    suppressed[j] = true;
+                }
+            }
+        }
+
+        candidates.retain(keep);
+    }
+
+    private boolean sameGroup(final int classA, final int classB)
+    {
+        if (classA == classB)
+        {
+            return true;
+        }
+
+        return classA < isMergedClass.length && classB < isMergedClass.length
+                && isMergedClass[classA] && isMergedClass[classB];
+    }
+
+    private void ensureCapacity(final int count)
+    {
+        if (order.length >= count)
+        {
+            return;
+        }
+
+        final int capacity = Math.max(count, order.length * 2);
+        order = new long[capacity];
+        areas = new float[capacity];
+        suppressed = new boolean[capacity];
+        keep = new boolean[capacity];
+    }
+}
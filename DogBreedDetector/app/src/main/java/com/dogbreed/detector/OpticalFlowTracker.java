@@ -0,0 +1,391 @@
+package com.dogbreed.detector;
+
+import android.graphics.RectF;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Moves boxes from one camera frame to the next with sparse pyramidal Lucas-Kanade optical flow on
+ * the Y plane, so that tracked objects keep following the image between detections.
+ *
+ * <p>Each box is covered with a grid of points and every point is tracked from the previous frame
+ * into the current one. The box then moves by the median displacement of the points that tracked
+ * well and scales by the median change of their distance from the centre. The fraction of points
+ * that tracked well is the confidence. Runs on the CPU, and allocates nothing once the frame size
+ * is known.
+ */
+public class OpticalFlowTracker
+{
+    private static final int NUM_LEVELS = 4;
+    // The finest pyramid level is the Y plane downscaled by this factor.
+    private static final int BASE_SCALE = 2;
+
+    private static final int WINDOW_RADIUS = 4;
+    private static final int WINDOW_SIZE = 2 * WINDOW_RADIUS + 1;
+    private static final int WINDOW_AREA = WINDOW_SIZE * WINDOW_SIZE;
+    private static final int MAX_ITERATIONS = 10;
+    private static final float MIN_STEP = 0.03f;
+    // Smallest eigenvalue of the structure tensor per window pixel, in squared luma units. Windows
+    // below this have too little texture to be tracked.
+    private static final float MIN_EIGENVALUE = 4.0f;
+    // Largest mean absolute luma difference between a point's window in both frames.
+    private static final float MAX_RESIDUAL = 8.0f;
+
+    private static final int POINTS_PER_SIDE = 5;
+    private static final int NUM_POINTS = POINTS_PER_SIDE * POINTS_PER_SIDE;
+    private static final int MIN_TRACKED_POINTS = 3;
+    // Fraction of the box left out around the point grid, where the background usually is.
+    private static final float POINT_MARGIN = 0.15f;
+    private static final float MAX_SCALE_CHANGE = 1.25f;
+
+    private ImagePyramid previous = new ImagePyramid();
+    private ImagePyramid current = new ImagePyramid();
+    private boolean hasPrevious = false;
+
+    // Scratch space for one point's window and for the points of one box.
+    private final float[] template = new float[WINDOW_AREA];
+    private final float[] gradientX = new float[WINDOW_AREA];
+    private final float[] gradientY = new float[WINDOW_AREA];
+    private final float[] startX = new float[NUM_POINTS];
+    private final float[] startY = new float[NUM_POINTS];
+    private final float[] endX = new float[NUM_POINTS];
+    private final float[] endY = new float[NUM_POINTS];
+    private final float[] values = new float[NUM_POINTS];
+    private float trackedX;
+    private float trackedY;
+
+    /** Makes {@code frame} the current frame and the one before it the previous one. */
+    public void setFrame(final YuvFrame frame)
+    {
+        final ImagePyramid swap = previous;
+        previous = current;
+        current = swap;
+        current.build(frame);
+        hasPrevious = previous.valid
+                && previous.widths[0] == current.widths[0]
+                && previous.heights[0] == current.heights[0];
+    }
+
+    /** Forgets the previous frame, so nothing is tracked until the next one. */
+    public void reset()
+    {
+        hasPrevious = false;
+        current.valid = false;
+    }
+
+    /** Returns true if there is a previous frame to track from. */
+    public boolean canTrack()
+    {
+        return hasPrevious;
+    }
+
+    /**
+     * Moves {@code box}, in frame coordinates, from where it was in the previous frame to where it
+     * is in the current one.
+     *
+     * @return the fraction of the box's points that could be tracked, between 0 and 1. The box is
+     *     left unchanged when too few of them could.
+     */
+    public float track(final RectF box)
+    {
+        if (!hasPrevious)
+        {
+            return 0.0f;
+        }
+
+        final float left = box.left / BASE_SCALE;
+        final float top = box.top / BASE_SCALE;
+        final float width = box.width() / BASE_SCALE;
+        final float height = box.height() / BASE_SCALE;
+
+        int numTracked = 0;
+        for (int row = 0; row < POINTS_PER_SIDE; row++)
+        {
+            final float y = top + height * (POINT_MARGIN + (1.0f - 2.0f * POINT_MARGIN) * row / (POINTS_PER_SIDE - 1));
+            for (int column = 0; column < POINTS_PER_SIDE; column++)
+            {
+                final float x = left + width * (POINT_MARGIN + (1.0f - 2.0f * POINT_MARGIN) * column / (POINTS_PER_SIDE - 1));
+                if (trackPoint(x, y))
+                {
+                    startX[numTracked] = x;
+                    startY[numTracked] = y;
+                    endX[numTracked] = trackedX;
+                    endY[numTracked] = trackedY;
+                    numTracked++;
+                }
+            }
+        }
+
+        if (numTracked < MIN_TRACKED_POINTS)
+        {
+            return numTracked / (float) NUM_POINTS;
+        }
+
+        for (int i = 0; i < numTracked; i++)
+        {
+            values[i] = endX[i] - startX[i];
+        }
+
+        final float shiftX = median(values, numTracked);
+
+        for (int i = 0; i < numTracked; i++)
+        {
+            values[i] = endY[i] - startY[i];
+        }
+
+        final float shiftY = median(values, numTracked);
+
+        final float scale = clampScale(estimateScale(numTracked));
+        final float centerX = (box.centerX() / BASE_SCALE + shiftX) * BASE_SCALE;
+        final float centerY = (box.centerY() / BASE_SCALE + shiftY) * BASE_SCALE;
+        final float halfWidth = box.width() * scale * 0.5f;
+        final float halfHeight = box.height() * scale * 0.5f;
+        box.set(centerX - halfWidth, centerY - halfHeight, centerX + halfWidth, centerY + halfHeight);
+
+        return numTracked / (float) NUM_POINTS;
+    }
+
+    /** Median ratio of the tracked points' distances from their centroid after and before. */
+    private float estimateScale(final int numTracked)
+    {
+        float startCenterX = 0.0f;
+        float startCenterY = 0.0f;
+        float endCenterX = 0.0f;
+        float endCenterY = 0.0f;
+        for (int i = 0; i < numTracked; i++)
+        {
+            startCenterX += startX[i];
+            startCenterY += startY[i];
+            endCenterX += endX[i];
+            endCenterY += endY[i];
+        }
+
+        startCenterX /= numTracked;
+        startCenterY /= numTracked;
+        endCenterX /= numTracked;
+        endCenterY /= numTracked;
+
+        int numRatios = 0;
+        for (int i = 0; i < numTracked; i++)
+        {
+            final float startDistance = (float) Math.hypot(startX[i] - startCenterX, startY[i] - startCenterY);
+            if (startDistance > 1.0f)
+            {
+                values[numRatios++] = (float) Math.hypot(endX[i] - endCenterX, endY[i] - endCenterY) / startDistance;
+            }
+        }
+
+        return numRatios > 0 ? median(values, numRatios) : 1.0f;
+    }
+
+    /**
+     * Tracks one point, in finest level coordinates, from the previous frame into the current one,
+     * coarse to fine. The result is left in {@link #trackedX} and {@link #trackedY}.
+     *
+     * @return false if the point has too little texture, or doesn't look the same afterwards.
+     */
+    private boolean trackPoint(final float x, final float y)
+    {
+        float guessX = 0.0f;
+        float guessY = 0.0f;
+        for (int level = NUM_LEVELS - 1; level >= 0; level--)
+        {
+            final float levelScale = 1.0f / (1 << level);
+            final float px = x * levelScale;
+            final float py = y * levelScale;
+            final byte[] previousImage = previous.levels[level];
+            final byte[] currentImage = current.levels[level];
+            final int width = current.widths[level];
+            final int height = current.heights[level];
+
+            float gxx = 0.0f;
+            float gxy = 0.0f;
+            float gyy = 0.0f;
+            int k = 0;
+            for (int wy = -WINDOW_RADIUS; wy <= WINDOW_RADIUS; wy++)
+            {
+                for (int wx = -WINDOW_RADIUS; wx <= WINDOW_RADIUS; wx++)
+                {
+                    final float sx = px + wx;
+                    final float sy = py + wy;
+                    final float gx = 0.5f * (sample(previousImage, width, height, sx + 1, sy)
+                            - sample(previousImage, width, height, sx - 1, sy));
+                    final float gy = 0.5f * (sample(previousImage, width, height, sx, sy + 1)
+                            - sample(previousImage, width, height, sx, sy - 1));
+                    template[k] = sample(previousImage, width, height, sx, sy);
+                    gradientX[k] = gx;
+                    gradientY[k] = gy;
+                    gxx += gx * gx;
+                    gxy += gx * gy;
+                    gyy += gy * gy;
+                    k++;
+                }
+            }
+
+            final float determinant = gxx * gyy - gxy * gxy;
+            final float minEigenvalue =
+                    0.5f * (gxx + gyy - (float) Math.sqrt((gxx - gyy) * (gxx - gyy) + 4.0f * gxy * gxy));
+            // Coarse levels blur fine texture away; they just pass the guess on when they can't
+            // refine it.
+            final boolean textured = minEigenvalue >= MIN_EIGENVALUE * WINDOW_AREA;
+            if (!textured && level == 0)
+            {
+                return false;
+            }
+
+            float flowX = 0.0f;
+            float flowY = 0.0f;
+            for (int iteration = 0; textured && iteration < MAX_ITERATIONS; iteration++)
+            {
+                final float cx = px + guessX + flowX;
+                final float cy = py + guessY + flowY;
+                float bx = 0.0f;
+                float by = 0.0f;
+                k = 0;
+                for (int wy = -WINDOW_RADIUS; wy <= WINDOW_RADIUS; wy++)
+                {
+                    for (int wx = -WINDOW_RADIUS; wx <= WINDOW_RADIUS; wx++)
+                    {
+                        final float difference = template[k] - sample(currentImage, width, height, cx + wx, cy + wy);
+                        bx += difference * gradientX[k];
+                        by += difference * gradientY[k];
+                        k++;
+                    }
+                }
+
+                final float stepX = (gyy * bx - gxy * by) / determinant;
+                final float stepY = (gxx * by - gxy * bx) / determinant;
+                flowX += stepX;
+                flowY += stepY;
+                if (stepX * stepX + stepY * stepY < MIN_STEP * MIN_STEP)
+                {
+                    break;
+                }
+            }
+
+            guessX += flowX;
+            guessY += flowY;
+            if (level > 0)
+            {
+                guessX *= 2.0f;
+                guessY *= 2.0f;
+            }
+        }
+
+        trackedX = x + guessX;
+        trackedY = y + guessY;
+        final int width = current.widths[0];
+        final int height = current.heights[0];
+        if (trackedX < 0 || trackedY < 0 || trackedX > width - 1 || trackedY > height - 1)
+        {
+            return false;
+        }
+
+        // The template still holds the finest level's window.
+        float residual = 0.0f;
+        int k = 0;
+        for (int wy = -WINDOW_RADIUS; wy <= WINDOW_RADIUS; wy++)
+        {
+            for (int wx = -WINDOW_RADIUS; wx <= WINDOW_RADIUS; wx++)
+            {
+                residual += Math.abs(template[k++] - sample(current.levels[0], width, height, trackedX + wx, trackedY + wy));
+            }
+        }
+
+        return residual <= MAX_RESIDUAL * WINDOW_AREA;
+    }
+
+    private static float sample(final byte[] image, final int width, final int height, final float x, final float y)
+    {
+        final float cx = x < 0.0f ? 0.0f : (x > width - 1.001f ? width - 1.001f : x);
+        final float cy = y < 0.0f ? 0.0f : (y > height - 1.001f ? height - 1.001f : y);
+        final int x0 = (int) cx;
+        final int y0 = (int) cy;
+        final float fx = cx - x0;
+        final float fy = cy - y0;
+        final int index = y0 * width + x0;
+        final float top = (0xff & image[index]) + fx * ((0xff & image[index + 1]) - (0xff & image[index]));
+        final float bottom = (0xff & image[index + width])
+                + fx * ((0xff & image[index + width + 1]) - (0xff & image[index + width]));
+        return top + fy * (bottom - top);
+    }
+
+    private static float median(final float[] values, final int count)
+    {
+        Arrays.sort(values, 0, count);
+        return (count & 1) == 1 ? values[count / 2] : 0.5f * (values[count / 2 - 1] + values[count / 2]);
+    }
+
+    private static float clampScale(final float scale)
+    {
+        return Math.max(1.0f / MAX_SCALE_CHANGE, Math.min(MAX_SCALE_CHANGE, scale));
+    }
+
+    /** The Y plane, downscaled to the finest level and halved for every coarser one. */
+    private static class ImagePyramid
+    {
+        final byte[][] levels = new byte[NUM_LEVELS][];
+        final int[] widths = new int[NUM_LEVELS];
+        final int[] heights = new int[NUM_LEVELS];
+        boolean valid = false;
+
+        void build(final YuvFrame frame)
+        {
+            final int baseWidth = frame.getWidth() / BASE_SCALE;
+            final int baseHeight = frame.getHeight() / BASE_SCALE;
+            if (levels[0] == null || widths[0] != baseWidth || heights[0] != baseHeight)
+            {
+                for (int level = 0; level < NUM_LEVELS; level++)
+                {
+                    widths[level] = Math.max(2, baseWidth >> level);
+                    heights[level] = Math.max(2, baseHeight >> level);
+                    levels[level] = new byte[widths[level] * heights[level]];
+                }
+            }
+
+            final ByteBuffer yPlane = frame.getYPlane();
+            final int rowStride = frame.getYRowStride();
+            final byte[] base = levels[0];
+            for (int y = 0; y < heights[0]; y++)
+            {
+                final int row0 = Math.min(2 * y, frame.getHeight() - 1) * rowStride;
+                final int row1 = Math.min(2 * y + 1, frame.getHeight() - 1) * rowStride;
+                for (int x = 0; x < widths[0]; x++)
+                {
+                    final int x0 = Math.min(2 * x, frame.getWidth() - 1);
+                    final int x1 = Math.min(2 * x + 1, frame.getWidth() - 1);
+                    final int sum = (0xff & yPlane.get(row0 + x0)) + (0xff & yPlane.get(row0 + x1))
+                            + (0xff & yPlane.get(row1 + x0)) + (0xff & yPlane.get(row1 + x1));
+                    base[y * widths[0] + x] = (byte) (sum >> 2);
+                }
+            }
+
+            for (int level = 1; level < NUM_LEVELS; level++)
+            {
+                downscale(levels[level - 1], widths[level - 1], heights[level - 1], levels[level], widths[level], heights[level]);
+            }
+
+            valid = true;
+        }
+
+        private static void downscale(
+                final byte[] src, final int srcWidth, final int srcHeight,
+                final byte[] dst, final int dstWidth, final int dstHeight)
+        {
+            for (int y = 0; y < dstHeight; y++)
+            {
+                final int row0 = Math.min(2 * y, srcHeight - 1) * srcWidth;
+                final int row1 = Math.min(2 * y + 1, srcHeight - 1) * srcWidth;
+                for (int x = 0; x < dstWidth; x++)
+                {
+                    final int x0 = Math.min(2 * x, srcWidth - 1);
+                    final int x1 = Math.min(2 * x + 1, srcWidth - 1);
+                    final int sum = (0xff & src[row0 + x0]) + (0xff & src[row0 + x1])
+                            + (0xff & src[row1 + x0]) + (0xff & src[row1 + x1]);
+                    dst[y * dstWidth + x] = (byte) (sum >> 2);
+                }
+            }
+        }
+    }
+}
@@ -4,25 +4,35 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.util.AttributeSet;
 import android.view.View;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
-/** A simple View providing a render callback to other classes. */
+/**
+ * A simple View providing a render callback to other classes. Drawing goes through the callbacks
+ * by index, so it allocates nothing.
+ */
 public class OverlayView extends View {
-    private final List<DrawCallback> callbacks = new LinkedList<DrawCallback>();
+    private final List<DrawCallback> callbacks = new ArrayList<DrawCallback>();
 
     public OverlayView(final Context context, final AttributeSet attrs) {
         super(context, attrs);
     }
 
-    public void addCallback(final DrawCallback callback) {
-        callbacks.add(callback);
+    /** Adds a callback; adding one that is already registered does nothing. */
+    public synchronized void addCallback(final DrawCallback callback) {
+        if (!callbacks.contains(callback)) {
+            callbacks.add(callback);
+        }
+    }
+
+    public synchronized void removeCallback(final DrawCallback callback) {
+        callbacks.remove(callback);
     }
 
     @Override
     public synchronized void draw(final Canvas canvas) {
-        for (final DrawCallback callback : callbacks) {
-            callback.drawCallback(canvas);
+        for (int i = 0; i < callbacks.size(); i++) {
+            callbacks.get(i).drawCallback(canvas);
         }
     }
 
@@ -0,0 +1,175 @@
+package com.dogbreed.detector;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Splits a row-oriented image job into horizontal bands and runs them on a small, fixed pool of
+ * worker threads. The calling thread processes the last band itself and then waits for the others,
+ * so a job with {@code n} bands only needs {@code n - 1} workers.
+ */
+public class RowBandExecutor
+{
+    /** A unit of work covering the rows {@code [startRow, endRow)}. */
+    public interface RowBandTask
+    {
+        void processRows(int startRow, int endRow);
+    }
+
+    // Bands smaller than this cost more to hand over than they save.
+    private static final int MIN_ROWS_PER_BAND = 16;
+
+    private final ExecutorService executor;
+    private final Band[] bands;
+    private final Object lock = new Object();
+    private int pendingBands;
+    private Throwable bandFailure;
+
+    /**
+     * @param numBands maximum number of bands a job is split into, including the caller's own.
+     */
+    public RowBandExecutor(final int numBands)
+    {
+        bands = new Band[Math.max(1, numBands)];
+        for (int i = 0; i < bands.length; i++)
+        {
+            bands[i] = new Band();
+        }
+
+        executor = bands.length > 1
+                ? Executors.newFixedThreadPool(bands.length - 1, new BandThreadFactory())
+                : null;
+    }
+
+    /** Stops the worker threads. The executor can't be used afterwards. */
+    public void close()
+    {
+        if (executor != null)
+        {
+            executor.shutdown();
+        }
+    }
+
+    /** Runs {@code task} over {@code numRows} rows and returns once every band has finished. */
+    public synchronized void run(final int numRows, final RowBandTask task)
+    {
+        final int numBands = Math.max(1, Math.min(bands.length, numRows / MIN_ROWS_PER_BAND));
+        if (numBands == 1 || executor == null)
+        {
+            task.processRows(0, numRows);
+            return;
+        }
+
+        synchronized (lock)
+        {
+            pendingBands = numBands - 1;
+            bandFailure = null;
+        }
+
+        final int rowsPerBand = (numRows + numBands - 1) / numBands;
+        for (int i = 0; i < numBands - 1; i++)
+        {
+            final Band band = bands[i];
+            band.task = task;
+            band.startRow = i * rowsPerBand;
+            band.endRow = Math.min(numRows, band.startRow + rowsPerBand);
+            executor.execute(band);
+        }
+
+        try
+        {
+            task.processRows((numBands - 1) * rowsPerBand, numRows);
+        }
+        finally
+        {
+            awaitBands();
+        }
+    }
+
+    private void awaitBands()
+    {
+        boolean interrupted = false;
+        synchronized (lock)
+        {
+            while (pendingBands > 0)
+            {
+                try
+                {
+                    lock.wait();
+                }
+                catch (final InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+
+            for (final Band band : bands)
+            {
+                band.task = null;
+            }
+
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if (bandFailure != null)
+            {
+                throw new RuntimeException("Row band failed", bandFailure);
+            }
+        }
+    }
+
+    private void bandFinished(final Throwable failure)
+    {
+        synchronized (lock)
+        {
+            if (failure != null && bandFailure == null)
+            {
+                bandFailure = failure;
+            }
+
+            pendingBands--;
+            lock.notifyAll();
+        }
+    }
+
+    private class Band implements Runnable
+    {
+        RowBandTask task;
+        int startRow;
+        int endRow;
+
+        @Override
+        public void run()
+        {
+            Throwable failure = null;
+            try
+            {
+                task.processRows(startRow, endRow);
+            }
+            catch (final Throwable t)
+            {
+                failure = t;
+            }
+            finally
+            {
+                bandFinished(failure);
+            }
+        }
+    }
+
+    private static class BandThreadFactory implements ThreadFactory
+    {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(final Runnable r)
+        {
+            final Thread thread = new Thread(r, "row-band-" + count++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
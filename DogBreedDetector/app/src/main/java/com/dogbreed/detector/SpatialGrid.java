@@ -0,0 +1,226 @@
+package com.dogbreed.detector;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over points, hashed into a bucket table so it needs no bounds. Items are small
+ * non-negative ids, each with one point; moving an item only relinks it when it changes cells, so
+ * the grid can be kept up to date every frame at little cost. A query returns every item whose cell
+ * overlaps a range, which is a superset of the items inside it.
+ */
+public class SpatialGrid
+{
+    private static final int NO_BUCKET = -1;
+    private static final int END = -1;
+
+    private final float cellSize;
+
+    private int[] buckets = new int[0];
+    private int bucketMask;
+    // Per item: its cell, its bucket or NO_BUCKET when absent, and its neighbours in the bucket.
+    private int[] cellX = new int[0];
+    private int[] cellY = new int[0];
+    private int[] bucketOf = new int[0];
+    private int[] next = new int[0];
+    private int[] previous = new int[0];
+    private int size = 0;
+
+    private int[] results = new int[16];
+
+    /**
+     * @param cellSize width and height of a cell. Cells about the size of the objects keep queries
+     *     to a few cells.
+     */
+    public SpatialGrid(final float cellSize)
+    {
+        this.cellSize = cellSize;
+        ensureCapacity(16);
+    }
+
+    /** Number of items in the grid. */
+    public int size()
+    {
+        return size;
+    }
+
+    /** Inserts {@code item} at the given point, or moves it there. */
+    public void update(final int item, final float x, final float y)
+    {
+        ensureCapacity(item + 1);
+
+        final int column = cell(x);
+        final int row = cell(y);
+        if (bucketOf[item] != NO_BUCKET)
+        {
+            if (cellX[item] == column && cellY[item] == row)
+            {
+                return;
+            }
+
+            unlink(item);
+        }
+        else
+        {
+            size++;
+        }
+
+        cellX[item] = column;
+        cellY[item] = row;
+        link(item);
+    }
+
+    public void remove(final int item)
+    {
+        if (item < bucketOf.length && bucketOf[item] != NO_BUCKET)
+        {
+            unlink(item);
+            size--;
+        }
+    }
+
+    public void clear()
+    {
+        Arrays.fill(buckets, END);
+        Arrays.fill(bucketOf, NO_BUCKET);
+        size = 0;
+    }
+
+    /**
+     * Finds the items in the cells that overlap a range. The items are left in {@link
+     * #getResults()}.
+     *
+     * @return the number of items found.
+     */
+    public int query(final float left, final float top, final float right, final float bottom)
+    {
+        final int firstColumn = cell(left);
+        final int lastColumn = cell(right);
+        final int firstRow = cell(top);
+        final int lastRow = cell(bottom);
+
+        int count = 0;
+        final long numCells = (long) (lastColumn - firstColumn + 1) * (lastRow - firstRow + 1);
+        if (numCells > size)
+        {
+            // Visiting every item is cheaper than visiting every cell.
+            for (int item = 0; item < bucketOf.length; item++)
+            {
+                if (bucketOf[item] != NO_BUCKET
+                        && cellX[item] >= firstColumn && cellX[item] <= lastColumn
+                        && cellY[item] >= firstRow && cellY[item] <= lastRow)
+                {
+                    count = addResult(count, item);
+                }
+            }
+
+            return count;
+        }
+
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                // Other cells can share the bucket.
+                for (int item = buckets[bucket(column, row)]; item != END; item = next[item])
+                {
+                    if (cellX[item] == column && cellY[item] == row)
+                    {
+                        count = addResult(count, item);
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /** Items found by the last {@link #query}. */
+    public int[] getResults()
+    {
+        return results;
+    }
+
+    private int addResult(final int count, final int item)
+    {
+        if (count == results.length)
+        {
+            results = Arrays.copyOf(results, 2 * count);
+        }
+
+        results[count] = item;
+        return count + 1;
+    }
+
+    private int cell(final float coordinate)
+    {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private int bucket(final int column, final int row)
+    {
+        return (column * 73856093 ^ row * 19349663) & bucketMask;
+    }
+
+    private void link(final int item)
+    {
+        final int bucket = bucket(cellX[item], cellY[item]);
+        final int head = buckets[bucket];
+        bucketOf[item] = bucket;
+        previous[item] = END;
+        next[item] = head;
+        if (head != END)
+        {
+            previous[head] = item;
+        }
+
+        buckets[bucket] = item;
+    }
+
+    private void unlink(final int item)
+    {
+        if (previous[item] != END)
+        {
+            next[previous[item]] = next[item];
+        }
+        else
+        {
+            buckets[bucketOf[item]] = next[item];
+        }
+
+        if (next[item] != END)
+        {
+            previous[next[item]] = previous[item];
+        }
+
+        bucketOf[item] = NO_BUCKET;
+    }
+
+    private void ensureCapacity(final int capacity)
+    {
+        if (capacity <= bucketOf.length)
+        {
+            return;
+        }
+
+        final int oldCapacity = bucketOf.length;
+        final int newCapacity = Math.max(capacity, 2 * oldCapacity);
+        cellX = Arrays.copyOf(cellX, newCapacity);
+        cellY = Arrays.copyOf(cellY, newCapacity);
+        bucketOf = Arrays.copyOf(bucketOf, newCapacity);
+        next = Arrays.copyOf(next, newCapacity);
+        previous = Arrays.copyOf(previous, newCapacity);
+        Arrays.fill(bucketOf, oldCapacity, newCapacity, NO_BUCKET);
+
+        // Keep at least two buckets per item, and rehash the items already in the grid.
+        buckets = new int[Integer.highestOneBit(2 * newCapacity - 1) << 1];
+        bucketMask = buckets.length - 1;
+        Arrays.fill(buckets, END);
+        for (int item = 0; item < oldCapacity; item++)
+        {
+            if (bucketOf[item] != NO_BUCKET)
+            {
+                link(item);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.dogbreed.detector;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring buffer for exactly one producer thread and one consumer thread. Neither side takes
+ * a lock; a side that has to wait parks and is unparked by the other side.
+ */
+public class SpscQueue<T>
+{
+    private final Object[] slots;
+    private final int capacity;
+
+    // Index of the next slot to take, written by the consumer only.
+    private final AtomicLong head = new AtomicLong();
+    // Index of the next slot to fill, written by the producer only.
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+
+    public SpscQueue(final int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        slots = new Object[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Adds {@code item} if there is room. Producer only. */
+    public boolean offer(final T item)
+    {
+        final long t = tail.get();
+        if (t - head.get() >= capacity)
+        {
+            return false;
+        }
+
+        slots[(int) (t % capacity)] = item;
+        tail.set(t + 1);
+
+        final Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /** Adds {@code item}, waiting for room if the queue is full. Producer only. */
+    public void put(final T item) throws InterruptedException
+    {
+        while (!offer(item))
+        {
+            waitingProducer = Thread.currentThread();
+            if (tail.get() - head.get() >= capacity)
+            {
+                LockSupport.park(this);
+            }
+
+            waitingProducer = null;
+            if (Thread.interrupted())
+            {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /** Removes the oldest item, or returns null if the queue is empty. Consumer only. */
+    @SuppressWarnings("unchecked")
+    public T poll()
+    {
+        final long h = head.get();
+        if (h == tail.get())
+        {
+            return null;
+        }
+
+        final int index = (int) (h % capacity);
+        final T item = (T) slots[index];
+        slots[index] = null;
+        head.set(h + 1);
+
+        final Thread producer = waitingProducer;
+        if (producer != null) LockSupport.unpark(producer);
+        return item;
+    }
+
+    /** Removes the oldest item, waiting for one if the queue is empty. Consumer only. */
+    public T take() throws InterruptedException
+    {
+        T item;
+        while ((item = poll()) == null)
+        {
+            waitingConsumer = Thread.currentThread();
+            if (head.get() == tail.get())
+            {
+                LockSupport.park(this);
+            }
+
+            waitingConsumer = null;
+            if (Thread.interrupted())
+            {
+                throw new InterruptedException();
+            }
+        }
+
+        return item;
+    }
+}
@@ -0,0 +1,83 @@
+package com.dogbreed.detector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * A native-ordered direct buffer holding one float32 tensor, together with its shape and a cached
+ * {@link FloatBuffer} view so that callers can bulk-pack values without allocating a new view.
+ */
+public class TensorBuffer
+{
+    private static final int BYTES_PER_FLOAT = 4;
+
+    private final int[] shape;
+    private final int numElements;
+    private final ByteBuffer buffer;
+    private final FloatBuffer floats;
+    // Views of the first n entries along the first dimension, created on first use.
+    private final ByteBuffer[] leadingViews;
+
+    TensorBuffer(final int[] shape)
+    {
+        this.shape = Arrays.copyOf(shape, shape.length);
+
+        int elements = 1;
+        for (final int dim : shape)
+        {
+            elements *= dim;
+        }
+
+        numElements = elements;
+        buffer = ByteBuffer.allocateDirect(numElements * BYTES_PER_FLOAT);
+        buffer.order(ByteOrder.nativeOrder());
+        floats = buffer.asFloatBuffer();
+        leadingViews = new ByteBuffer[shape.length > 0 ? shape[0] + 1 : 1];
+    }
+
+    /** Returns the buffer rewound to position zero, ready to be handed to an interpreter. */
+    public ByteBuffer getBuffer()
+    {
+        buffer.rewind();
+        return buffer;
+    }
+
+    /** Returns the float view rewound to position zero, ready for bulk {@code put} calls. */
+    public FloatBuffer getFloats()
+    {
+        floats.rewind();
+        return floats;
+    }
+
+    /**
+     * Returns a rewound view of the first {@code count} entries along the first dimension, so a
+     * buffer sized for a large batch can feed an interpreter expecting a smaller one.
+     */
+    public ByteBuffer getLeadingBuffer(final int count)
+    {
+        ByteBuffer view = leadingViews[count];
+        if (view == null)
+        {
+            final ByteBuffer source = buffer.duplicate();
+            source.clear();
+            source.limit(numElements / shape[0] * count * BYTES_PER_FLOAT);
+            view = source.slice().order(ByteOrder.nativeOrder());
+            leadingViews[count] = view;
+        }
+
+        view.rewind();
+        return view;
+    }
+
+    public int getNumElements()
+    {
+        return numElements;
+    }
+
+    boolean hasShape(final int[] otherShape)
+    {
+        return Arrays.equals(shape, otherShape);
+    }
+}
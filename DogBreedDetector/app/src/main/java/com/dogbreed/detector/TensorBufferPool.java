@@ -0,0 +1,79 @@
+package com.dogbreed.detector;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A pool of direct tensor buffers keyed by shape. Buffers are allocated the first time a shape is
+ * requested and are recycled afterwards, so steady-state inference does not allocate any direct
+ * memory per frame.
+ *
+ * <p>The number of distinct shapes is tiny (one per model input/output), so the lookup is a linear
+ * scan instead of a map, which keeps {@link #acquire} and {@link #release} allocation-free.
+ */
+public class TensorBufferPool
+{
+    private final ArrayList<ArrayDeque<TensorBuffer>> freeBuffers = new ArrayList<>();
+    private final ArrayList<int[]> shapes = new ArrayList<>();
+
+    /**
+     * Returns a buffer of the given shape, reusing a released one if possible.
+     *
+     * @param shape the tensor dimensions, e.g. {@code {1, 416, 416, 3}}. Callers on the hot path
+     *     should pass a constant array.
+     */
+    public synchronized TensorBuffer acquire(final int[] shape)
+    {
+        final ArrayDeque<TensorBuffer> free = getFreeList(shape);
+        final TensorBuffer tensorBuffer = free.pollFirst();
+        if (tensorBuffer != null)
+        {
+            return tensorBuffer;
+        }
+
+        return new TensorBuffer(shape);
+    }
+
+    /** Hands a buffer back to the pool. The caller must not touch it afterwards. */
+    public synchronized void release(final TensorBuffer tensorBuffer)
+    {
+        if (tensorBuffer == null)
+        {
+            return;
+        }
+
+        for (int i = 0; i < shapes.size(); i++)
+        {
+            if (tensorBuffer.hasShape(shapes.get(i)))
+            {
+                freeBuffers.get(i).addFirst(tensorBuffer);
+                return;
+            }
+        }
+    }
+
+    /** Drops every pooled buffer so the direct memory can be reclaimed. */
+    public synchronized void clear()
+    {
+        freeBuffers.clear();
+        shapes.clear();
+    }
+
+    private ArrayDeque<TensorBuffer> getFreeList(final int[] shape)
+    {
+        for (int i = 0; i < shapes.size(); i++)
+        {
+            if (Arrays.equals(shapes.get(i), shape))
+            {
+                return freeBuffers.get(i);
+            }
+        }
+
+        shapes.add(shape.clone());
+        final ArrayDeque<TensorBuffer> free = new ArrayDeque<>();
+        freeBuffers.add(free);
+
+        return free;
+    }
+}
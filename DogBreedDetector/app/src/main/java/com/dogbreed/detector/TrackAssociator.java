@@ -0,0 +1,369 @@
+package com.dogbreed.detector;
+
+import java.util.Arrays;
+
+/**
+ * Matches detections to tracks with the lowest total cost. A pair costs 1 - IoU plus the weighted
+ * centre distance, relative to the track box's diagonal; pairs that barely overlap and lie far
+ * apart can't be matched at all.
+ *
+ * <p>With a cell size, track centres are kept in a {@link SpatialGrid}, so each detection is only
+ * compared with the tracks in the cells around it. The pairs that pass the gate split the scene
+ * into independent groups, and each group is solved on its own with {@link HungarianSolver}. In a
+ * crowd that is spread out, the cost then grows about linearly with the number of objects instead
+ * of with its cube.
+ *
+ * <p>Boxes are passed as {@code left, top, right, bottom} quadruples in float arrays. Working
+ * arrays are kept between calls and only grow.
+ */
+public class TrackAssociator
+{
+    private static final float CENTER_DISTANCE_WEIGHT = 0.5f;
+    private static final float MIN_MATCH_IOU = 0.1f;
+    private static final float MAX_MATCH_CENTER_DISTANCE = 0.5f;
+    private static final float NO_MATCH_COST = 1e6f;
+
+    private final SpatialGrid grid;
+    private final HungarianSolver hungarianSolver = new HungarianSolver();
+
+    // Gated pairs, grouped by detection: pairs edgeStart[d] to edgeStart[d + 1] - 1 belong to d.
+    private int[] edgeStart = new int[0];
+    private int[] edgeTrack = new int[0];
+    private float[] edgeCost = new float[0];
+    // Position of every track slot in the track list of the current call.
+    private int[] trackPositions = new int[0];
+
+    // Groups: union-find over detections followed by tracks, then both sorted by group.
+    private int[] parent = new int[0];
+    private int[] groupDetections = new int[0];
+    private int[] groupTracks = new int[0];
+    private int[] groupDetectionStart = new int[0];
+    private int[] groupTrackStart = new int[0];
+    private int[] sortedDetections = new int[0];
+    private int[] sortedTracks = new int[0];
+    private int[] localTrack = new int[0];
+
+    private float[] localCosts = new float[0];
+    private int[] localAssignment = new int[0];
+
+    /**
+     * @param cellSize cell size of the spatial grid, about the size of a typical box. Zero or less
+     *     compares every detection with every track.
+     */
+    public TrackAssociator(final float cellSize)
+    {
+        grid = cellSize > 0 ? new SpatialGrid(cellSize) : null;
+    }
+
+    /** Forgets a track that ended, so the slot can be reused. */
+    public void removeTrack(final int slot)
+    {
+        if (grid != null)
+        {
+            grid.remove(slot);
+        }
+    }
+
+    /**
+     * Finds the cheapest matching.
+     *
+     * @param trackBoxes boxes of the tracks, indexed by slot.
+     * @param trackSlots slots of the live tracks.
+     * @param detectionBoxes boxes of the detections, indexed by detection.
+     * @param matchedSlots receives, for every detection, the slot of its track or -1.
+     */
+    public void associate(
+            final float[] trackBoxes,
+            final int[] trackSlots,
+            final int numTracks,
+            final float[] detectionBoxes,
+            final int numDetections,
+            final int[] matchedSlots)
+    {
+        ensureCapacity(trackBoxes.length / 4, numTracks, numDetections);
+        Arrays.fill(matchedSlots, 0, numDetections, -1);
+
+        // A detection can only be matched to a track whose centre is within half the track's
+        // diagonal of its edges.
+        float maxDiagonal = 0.0f;
+        for (int position = 0; position < numTracks; position++)
+        {
+            final int slot = trackSlots[position];
+            trackPositions[slot] = position;
+            final int box = 4 * slot;
+            final float width = trackBoxes[box + 2] - trackBoxes[box];
+            final float height = trackBoxes[box + 3] - trackBoxes[box + 1];
+            maxDiagonal = Math.max(maxDiagonal, (float) Math.hypot(width, height));
+            if (grid != null)
+            {
+                grid.update(slot, 0.5f * (trackBoxes[box] + trackBoxes[box + 2]), 0.5f * (trackBoxes[box + 1] + trackBoxes[box + 3]));
+            }
+        }
+
+        for (int node = 0; node < numDetections + numTracks; node++)
+        {
+            parent[node] = node;
+        }
+
+        int numEdges = 0;
+        final float reach = 0.5f * maxDiagonal;
+        for (int detection = 0; detection < numDetections; detection++)
+        {
+            edgeStart[detection] = numEdges;
+            final int box = 4 * detection;
+            final int numCandidates;
+            final int[] candidates;
+            if (grid != null)
+            {
+                numCandidates = grid.query(
+                        detectionBoxes[box] - reach, detectionBoxes[box + 1] - reach,
+                        detectionBoxes[box + 2] + reach, detectionBoxes[box + 3] + reach);
+                candidates = grid.getResults();
+            }
+            else
+            {
+                numCandidates = numTracks;
+                candidates = trackSlots;
+            }
+
+            for (int i = 0; i < numCandidates; i++)
+            {
+                final int slot = candidates[i];
+                final int position = trackPositions[slot];
+                if (position >= numTracks || trackSlots[position] != slot)
+                {
+                    // Left in the grid by a track that ended without removeTrack.
+                    grid.remove(slot);
+                    continue;
+                }
+
+                final float cost = cost(trackBoxes, 4 * slot, detectionBoxes, box);
+                if (cost >= NO_MATCH_COST)
+                {
+                    continue;
+                }
+
+                if (numEdges == edgeTrack.length)
+                {
+                    edgeTrack = Arrays.copyOf(edgeTrack, 2 * numEdges);
+                    edgeCost = Arrays.copyOf(edgeCost, 2 * numEdges);
+                }
+
+                edgeTrack[numEdges] = position;
+                edgeCost[numEdges] = cost;
+                numEdges++;
+                union(detection, numDetections + position);
+            }
+        }
+
+        edgeStart[numDetections] = numEdges;
+
+        groupByRoot(numDetections, numTracks);
+
+        for (int root = 0; root < numDetections + numTracks; root++)
+        {
+            final int numGroupDetections = groupDetections[root];
+            final int numGroupTracks = groupTracks[root];
+            if (numGroupDetections == 0 || numGroupTracks == 0)
+            {
+                continue;
+            }
+
+            final int detectionOffset = groupDetectionStart[root];
+            final int trackOffset = groupTrackStart[root];
+            if (numGroupDetections == 1 && numGroupTracks == 1)
+            {
+                // A group of one pair has exactly one gated edge.
+                matchedSlots[sortedDetections[detectionOffset]] = trackSlots[sortedTracks[trackOffset]];
+                continue;
+            }
+
+            solveGroup(
+                    trackSlots, detectionOffset, numGroupDetections, trackOffset, numGroupTracks, matchedSlots);
+        }
+    }
+
+    private void solveGroup(
+            final int[] trackSlots,
+            final int detectionOffset,
+            final int numGroupDetections,
+            final int trackOffset,
+            final int numGroupTracks,
+            final int[] matchedSlots)
+    {
+        final int numCosts = numGroupDetections * numGroupTracks;
+        if (localCosts.length < numCosts)
+        {
+            localCosts = new float[2 * numCosts];
+        }
+
+        if (localAssignment.length < numGroupDetections)
+        {
+            localAssignment = new int[2 * numGroupDetections];
+        }
+
+        for (int i = 0; i < numGroupTracks; i++)
+        {
+            localTrack[sortedTracks[trackOffset + i]] = i;
+        }
+
+        Arrays.fill(localCosts, 0, numCosts, NO_MATCH_COST);
+        for (int i = 0; i < numGroupDetections; i++)
+        {
+            final int detection = sortedDetections[detectionOffset + i];
+            for (int edge = edgeStart[detection]; edge < edgeStart[detection + 1]; edge++)
+            {
+                localCosts[i * numGroupTracks + localTrack[edgeTrack[edge]]] = edgeCost[edge];
+            }
+        }
+
+        hungarianSolver.solve(localCosts, numGroupDetections, numGroupTracks, localAssignment);
+
+        for (int i = 0; i < numGroupDetections; i++)
+        {
+            final int track = localAssignment[i];
+            if (track != -1 && localCosts[i * numGroupTracks + track] < NO_MATCH_COST)
+            {
+                matchedSlots[sortedDetections[detectionOffset + i]] = trackSlots[sortedTracks[trackOffset + track]];
+            }
+        }
+    }
+
+    /** Sorts detections and tracks by the root of their group, with a counting sort. */
+    private void groupByRoot(final int numDetections, final int numTracks)
+    {
+        final int numNodes = numDetections + numTracks;
+        Arrays.fill(groupDetections, 0, numNodes, 0);
+        Arrays.fill(groupTracks, 0, numNodes, 0);
+        for (int node = 0; node < numNodes; node++)
+        {
+            final int root = find(node);
+            if (node < numDetections)
+            {
+                groupDetections[root]++;
+            }
+            else
+            {
+                groupTracks[root]++;
+            }
+        }
+
+        int detectionOffset = 0;
+        int trackOffset = 0;
+        for (int root = 0; root < numNodes; root++)
+        {
+            groupDetectionStart[root] = detectionOffset;
+            groupTrackStart[root] = trackOffset;
+            detectionOffset += groupDetections[root];
+            trackOffset += groupTracks[root];
+        }
+
+        // The starts are used as insertion points and restored afterwards.
+        for (int node = 0; node < numNodes; node++)
+        {
+            final int root = find(node);
+            if (node < numDetections)
+            {
+                sortedDetections[groupDetectionStart[root]++] = node;
+            }
+            else
+            {
+                sortedTracks[groupTrackStart[root]++] = node - numDetections;
+            }
+        }
+
+        for (int root = 0; root < numNodes; root++)
+        {
+            groupDetectionStart[root] -= groupDetections[root];
+            groupTrackStart[root] -= groupTracks[root];
+        }
+    }
+
+    private int find(int node)
+    {
+        while (parent[node] != node)
+        {
+            parent[node] = parent[parent[node]];
+            node = parent[node];
+        }
+
+        return node;
+    }
+
+    private void union(final int a, final int b)
+    {
+        final int rootA = find(a);
+        final int rootB = find(b);
+        if (rootA != rootB)
+        {
+            parent[rootB] = rootA;
+        }
+    }
+
+    private static float cost(final float[] tracks, final int track, final float[] detections, final int detection)
+    {
+        final float trackLeft = tracks[track];
+        final float trackTop = tracks[track + 1];
+        final float trackRight = tracks[track + 2];
+        final float trackBottom = tracks[track + 3];
+        final float detectionLeft = detections[detection];
+        final float detectionTop = detections[detection + 1];
+        final float detectionRight = detections[detection + 2];
+        final float detectionBottom = detections[detection + 3];
+
+        final float width = Math.min(trackRight, detectionRight) - Math.max(trackLeft, detectionLeft);
+        final float height = Math.min(trackBottom, detectionBottom) - Math.max(trackTop, detectionTop);
+        final float intersection = width > 0 && height > 0 ? width * height : 0.0f;
+        final float union = (trackRight - trackLeft) * (trackBottom - trackTop)
+                + (detectionRight - detectionLeft) * (detectionBottom - detectionTop) - intersection;
+        final float iou = union > 0 ? intersection / union : 0.0f;
+
+        final float diagonal = Math.max(1.0f, (float) Math.hypot(trackRight - trackLeft, trackBottom - trackTop));
+        final float distance = (float) Math.hypot(
+                0.5f * (detectionLeft + detectionRight - trackLeft - trackRight),
+                0.5f * (detectionTop + detectionBottom - trackTop - trackBottom)) / diagonal;
+
+        if (iou < MIN_MATCH_IOU && distance > MAX_MATCH_CENTER_DISTANCE)
+        {
+            return NO_MATCH_COST;
+        }
+
+        return 1.0f - iou + CENTER_DISTANCE_WEIGHT * distance;
+    }
+
+    private void ensureCapacity(final int numSlots, final int numTracks, final int numDetections)
+    {
+        if (trackPositions.length < numSlots)
+        {
+            trackPositions = new int[numSlots];
+        }
+
+        if (localTrack.length < numTracks)
+        {
+            localTrack = new int[2 * numTracks];
+        }
+
+        if (edgeStart.length < numDetections + 1)
+        {
+            edgeStart = new int[2 * (numDetections + 1)];
+        }
+
+        if (edgeTrack.length == 0)
+        {
+            edgeTrack = new int[64];
+            edgeCost = new float[64];
+        }
+
+        final int numNodes = numDetections + numTracks;
+        if (parent.length < numNodes)
+        {
+            parent = new int[2 * numNodes];
+            groupDetections = new int[2 * numNodes];
+            groupTracks = new int[2 * numNodes];
+            groupDetectionStart = new int[2 * numNodes];
+            groupTrackStart = new int[2 * numNodes];
+            sortedDetections = new int[2 * numNodes];
+            sortedTracks = new int[2 * numNodes];
+        }
+    }
+}
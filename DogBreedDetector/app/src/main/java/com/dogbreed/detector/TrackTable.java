@@ -0,0 +1,154 @@
+package com.dogbreed.detector;
+
+import java.util.Arrays;
+
+/**
+ * The tracks of a {@link MultiBoxTracker}, stored as parallel arrays indexed by slot. Slots of
+ * removed tracks go on a free list and are handed out again, and every array doubles when the
+ * table is full, so adding and removing tracks allocates nothing in steady state. Live slots are
+ * kept in a dense list for iteration. Every track gets an id that never changes and is never
+ * reused.
+ */
+class TrackTable
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    int[] ids = new int[0];
+    // Current box in frame coordinates.
+    float[] left = new float[0];
+    float[] top = new float[0];
+    float[] right = new float[0];
+    float[] bottom = new float[0];
+    // Camera timestamp of the frame the box was last placed on, in nanoseconds.
+    long[] locationTimestamp = new long[0];
+    float[] detectionConfidence = new float[0];
+    String[] title = new String[0];
+    // Label drawn with the box and its width, built for the title and confidence it shows.
+    String[] label = new String[0];
+    float[] labelWidth = new float[0];
+    String[] labelTitle = new String[0];
+    int[] labelConfidence = new int[0];
+    // Last breed result and the box it was classified on, in frame coordinates.
+    BreedResult[] breed = new BreedResult[0];
+    float[] breedLeft = new float[0];
+    float[] breedTop = new float[0];
+    float[] breedRight = new float[0];
+    float[] breedBottom = new float[0];
+    // Detections in a row the track wasn't matched to. Missed tracks are kept, but not shown.
+    int[] missedDetections = new int[0];
+    // Follows the detected boxes, to predict where the dog is in the next detection's frame.
+    KalmanBoxFilter[] motion = new KalmanBoxFilter[0];
+
+    private int[] liveSlots = new int[0];
+    // Position of every live slot in liveSlots, for constant time removal.
+    private int[] livePositions = new int[0];
+    private int numLive = 0;
+    private int[] freeSlots = new int[0];
+    private int numFree = 0;
+    private int nextId = 0;
+
+    TrackTable()
+    {
+        grow(INITIAL_CAPACITY);
+    }
+
+    /** Number of live tracks. */
+    int size()
+    {
+        return numLive;
+    }
+
+    /** Slot of the {@code index}th live track, for {@code index} below {@link #size()}. */
+    int slotAt(final int index)
+    {
+        return liveSlots[index];
+    }
+
+    /** Returns true if {@code slot} holds a live track. */
+    boolean isLive(final int slot)
+    {
+        final int position = livePositions[slot];
+        return position < numLive && liveSlots[position] == slot;
+    }
+
+    /**
+     * Starts a new track with a fresh id and returns its slot. Its box, breed and motion filter
+     * have to be set by the caller.
+     */
+    int add()
+    {
+        if (numFree == 0)
+        {
+            grow(2 * ids.length);
+        }
+
+        final int slot = freeSlots[--numFree];
+        ids[slot] = nextId++;
+        detectionConfidence[slot] = 0.0f;
+        title[slot] = null;
+        label[slot] = null;
+        breed[slot] = null;
+        missedDetections[slot] = 0;
+
+        livePositions[slot] = numLive;
+        liveSlots[numLive++] = slot;
+        return slot;
+    }
+
+    /** Ends the track in {@code slot}. Other live tracks may move to different list positions. */
+    void remove(final int slot)
+    {
+        final int position = livePositions[slot];
+        final int lastSlot = liveSlots[--numLive];
+        liveSlots[position] = lastSlot;
+        livePositions[lastSlot] = position;
+
+        title[slot] = null;
+        label[slot] = null;
+        labelTitle[slot] = null;
+        breed[slot] = null;
+        freeSlots[numFree++] = slot;
+    }
+
+    void clear()
+    {
+        while (numLive > 0)
+        {
+            remove(liveSlots[numLive - 1]);
+        }
+    }
+
+    private void grow(final int capacity)
+    {
+        final int oldCapacity = ids.length;
+        ids = Arrays.copyOf(ids, capacity);
+        left = Arrays.copyOf(left, capacity);
+        top = Arrays.copyOf(top, capacity);
+        right = Arrays.copyOf(right, capacity);
+        bottom = Arrays.copyOf(bottom, capacity);
+        locationTimestamp = Arrays.copyOf(locationTimestamp, capacity);
+        detectionConfidence = Arrays.copyOf(detectionConfidence, capacity);
+        title = Arrays.copyOf(title, capacity);
+        label = Arrays.copyOf(label, capacity);
+        labelWidth = Arrays.copyOf(labelWidth, capacity);
+        labelTitle = Arrays.copyOf(labelTitle, capacity);
+        labelConfidence = Arrays.copyOf(labelConfidence, capacity);
+        breed = Arrays.copyOf(breed, capacity);
+        breedLeft = Arrays.copyOf(breedLeft, capacity);
+        breedTop = Arrays.copyOf(breedTop, capacity);
+        breedRight = Arrays.copyOf(breedRight, capacity);
+        breedBottom = Arrays.copyOf(breedBottom, capacity);
+        missedDetections = Arrays.copyOf(missedDetections, capacity);
+        motion = Arrays.copyOf(motion, capacity);
+        liveSlots = Arrays.copyOf(liveSlots, capacity);
+        livePositions = Arrays.copyOf(livePositions, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+
+        // Hand out the new slots lowest first.
+        for (int slot = capacity - 1; slot >= oldCapacity; slot--)
+        {
+            motion[slot] = new KalmanBoxFilter();
+            freeSlots[numFree++] = slot;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.dogbreed.detector;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Decodes YOLO outputs for a fixed set of target classes. Only the score columns of those classes
+ * are read, and a candidate is rejected as soon as none of them passes the threshold, so the other
+ * classes never cost more than being skipped over.
+ */
+public class YoloDecoder
+{
+    private final int[] targetClasses;
+    private final int numClasses;
+    private final int inputSize;
+
+    /**
+     * @param targetClasses class indices to decode; every other class is ignored.
+     * @param numClasses number of score columns per candidate.
+     * @param inputSize width and height of the model input, used to clip boxes.
+     */
+    public YoloDecoder(final int[] targetClasses, final int numClasses, final int inputSize)
+    {
+        this.numClasses = numClasses;
+        this.inputSize = inputSize;
+
+        final boolean[] isTargetClass = new boolean[numClasses];
+        int count = 0;
+        for (final int targetClass : targetClasses)
+        {
+            if (targetClass >= 0 && targetClass < numClasses && !isTargetClass[targetClass])
+            {
+                isTargetClass[targetClass] = true;
+                count++;
+            }
+        }
+
+        // Keep the columns in ascending order so the scan walks forward through each row.
+        this.targetClasses = new int[count];
+        int index = 0;
+        for (int c = 0; c < numClasses; c++)
+        {
+            if (isTargetClass[c])
+            {
+                this.targetClasses[index++] = c;
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of {@code out} with every candidate whose best target class scores
+     * above {@code threshold}.
+     *
+     * @param boxes centre-size boxes, four floats per candidate.
+     * @param scores class scores, {@code numClasses} floats per candidate.
+     * @param numCandidates number of candidates in both buffers.
+     * @param threshold minimum score of the best target class.
+     * @param out receives the decoded candidates, with edges clipped to the model input.
+     */
+    public void decode(
+            final FloatBuffer boxes,
+            final FloatBuffer scores,
+            final int numCandidates,
+            final float threshold,
+            final DetectionCandidates out)
+    {
+        out.clear();
+        final int[] columns = targetClasses;
+        for (int i = 0; i < numCandidates; i++)
+        {
+            final int scoreOffset = i * numClasses;
+            float maxScore = threshold;
+            int detectedClass = -1;
+            for (final int c : columns)
+            {
+                final float score = scores.get(scoreOffset + c);
+                if (score > maxScore)
+                {
+                    maxScore = score;
+                    detectedClass = c;
+                }
+            }
+
+            if (detectedClass < 0)
+            {
+                continue;
+            }
+
+            final int boxOffset = i * 4;
+            final float xPos = boxes.get(boxOffset);
+            final float yPos = boxes.get(boxOffset + 1);
+            final float w = boxes.get(boxOffset + 2);
+            final float h = boxes.get(boxOffset + 3);
+            out.add(
+                    Math.max(0, xPos - w / 2),
+                    Math.max(0, yPos - h / 2),
+                    Math.min(inputSize - 1, xPos + w / 2),
+                    Math.min(inputSize - 1, yPos + h / 2),
+                    maxScore,
+                    detectedClass);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.dogbreed.detector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV_420_888 camera frame described by its three planes and their strides. The planes are read
+ * with absolute gets, so their positions are never modified.
+ */
+public class YuvFrame
+{
+    private ByteBuffer yPlane;
+    private ByteBuffer uPlane;
+    private ByteBuffer vPlane;
+    private int width;
+    private int height;
+    private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+    private long timestamp;
+
+    public void set(
+            final ByteBuffer yPlane,
+            final ByteBuffer uPlane,
+            final ByteBuffer vPlane,
+            final int width,
+            final int height,
+            final int yRowStride,
+            final int uvRowStride,
+            final int uvPixelStride,
+            final long timestamp)
+    {
+        this.yPlane = yPlane;
+        this.uPlane = uPlane;
+        this.vPlane = vPlane;
+        this.width = width;
+        this.height = height;
+        this.yRowStride = yRowStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+        this.timestamp = timestamp;
+    }
+
+    public ByteBuffer getYPlane() {
+        return yPlane;
+    }
+
+    public ByteBuffer getUPlane() {
+        return uPlane;
+    }
+
+    public ByteBuffer getVPlane() {
+        return vPlane;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getYRowStride() {
+        return yRowStride;
+    }
+
+    public int getUvRowStride() {
+        return uvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return uvPixelStride;
+    }
+
+    /** Capture timestamp of the frame in nanoseconds, as reported by the camera. */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,161 @@
+package com.dogbreed.detector;
+
+import android.graphics.Matrix;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Converts a YUV camera frame straight into a normalized RGB model input. Every destination pixel is
+ * mapped back into the frame through the crop-to-frame transform and sampled with nearest-neighbour
+ * lookup, which is what drawing the ARGB frame onto the crop bitmap with a {@link Matrix} and no
+ * paint used to do. Only the pixels the model sees are converted.
+ *
+ * <p>With a {@link RowBandExecutor}, the rows of the model input are converted in parallel bands
+ * into a staging array, which is then copied into the tensor in one bulk put.
+ */
+public class YuvToTensorConverter
+{
+    private static final int PIXEL_SIZE = 3;
+
+    private final int dstSize;
+
+    // Affine terms of cropToFrameTransform, split into per-column and per-row contributions
+    // evaluated at pixel centres: src = column[dx] + row[dy].
+    private final float[] columnX;
+    private final float[] columnY;
+    private final float[] rowX;
+    private final float[] rowY;
+
+    private final float[] pixels;
+    private final RowBandExecutor rowBandExecutor;
+    private final RowBandExecutor.RowBandTask convertRows =
+            new RowBandExecutor.RowBandTask()
+            {
+                @Override
+                public void processRows(final int startRow, final int endRow)
+                {
+                    convertRows(startRow, endRow);
+                }
+            };
+    // The frame being converted, read by the bands.
+    private YuvFrame frame;
+    private final float[] matrixValues = new float[9];
+    private final Matrix transform = new Matrix();
+    private boolean hasTransform = false;
+
+    /**
+     * @param dstSize width and height of the square model input.
+     */
+    public YuvToTensorConverter(final int dstSize)
+    {
+        this(dstSize, null);
+    }
+
+    /**
+     * @param dstSize width and height of the square model input.
+     * @param rowBandExecutor runs the rows in parallel bands, or null to convert on the calling
+     *     thread only.
+     */
+    public YuvToTensorConverter(final int dstSize, final RowBandExecutor rowBandExecutor)
+    {
+        this.dstSize = dstSize;
+        this.rowBandExecutor = rowBandExecutor;
+        columnX = new float[dstSize];
+        columnY = new float[dstSize];
+        rowX = new float[dstSize];
+        rowY = new float[dstSize];
+        pixels = new float[dstSize * dstSize * PIXEL_SIZE];
+    }
+
+    /**
+     * Sets the transform from model input coordinates to frame coordinates, usually the inverse of
+     * {@link ImageUtils#getTransformationMatrix}. The sampling tables are only rebuilt when the
+     * transform actually changes.
+     */
+    public void setTransform(final Matrix cropToFrameTransform)
+    {
+        if (hasTransform && transform.equals(cropToFrameTransform))
+        {
+            return;
+        }
+
+        transform.set(cropToFrameTransform);
+        transform.getValues(matrixValues);
+        for (int i = 0; i < dstSize; i++)
+        {
+            final float center = i + 0.5f;
+            columnX[i] = matrixValues[Matrix.MSCALE_X] * center;
+            columnY[i] = matrixValues[Matrix.MSKEW_Y] * center;
+            rowX[i] = matrixValues[Matrix.MSKEW_X] * center + matrixValues[Matrix.MTRANS_X];
+            rowY[i] = matrixValues[Matrix.MSCALE_Y] * center + matrixValues[Matrix.MTRANS_Y];
+        }
+
+        hasTransform = true;
+    }
+
+    /**
+     * Writes {@code dstSize * dstSize} normalized RGB pixels into {@code out}.
+     *
+     * @param frame the camera frame to sample from.
+     * @param out destination float view, positioned at the first pixel.
+     */
+    public void convert(final YuvFrame frame, final FloatBuffer out)
+    {
+        this.frame = frame;
+        try
+        {
+            if (rowBandExecutor != null)
+            {
+                rowBandExecutor.run(dstSize, convertRows);
+            }
+            else
+            {
+                convertRows(0, dstSize);
+            }
+        }
+        finally
+        {
+            this.frame = null;
+        }
+
+        out.put(pixels);
+    }
+
+    private void convertRows(final int startRow, final int endRow)
+    {
+        // Absolute reads only, so the bands can share the planes.
+        final ByteBuffer yPlane = frame.getYPlane();
+        final ByteBuffer uPlane = frame.getUPlane();
+        final ByteBuffer vPlane = frame.getVPlane();
+        final int maxX = frame.getWidth() - 1;
+        final int maxY = frame.getHeight() - 1;
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+
+        int channel = startRow * dstSize * PIXEL_SIZE;
+        for (int dy = startRow; dy < endRow; dy++)
+        {
+            final float srcRowX = rowX[dy];
+            final float srcRowY = rowY[dy];
+            for (int dx = 0; dx < dstSize; dx++)
+            {
+                int x = (int) Math.floor(columnX[dx] + srcRowX);
+                int y = (int) Math.floor(columnY[dx] + srcRowY);
+                x = x < 0 ? 0 : (x > maxX ? maxX : x);
+                y = y < 0 ? 0 : (y > maxY ? maxY : y);
+
+                final int uvOffset = (y >> 1) * uvRowStride + (x >> 1) * uvPixelStride;
+                final int argb = ImageUtils.YUV2RGB(
+                        0xff & yPlane.get(y * yRowStride + x),
+                        0xff & uPlane.get(uvOffset),
+                        0xff & vPlane.get(uvOffset));
+
+                pixels[channel++] = ((argb >> 16) & 0xFF) / 255.0f;
+                pixels[channel++] = ((argb >> 8) & 0xFF) / 255.0f;
+                pixels[channel++] = (argb & 0xFF) / 255.0f;
+            }
+        }
+    }
+}
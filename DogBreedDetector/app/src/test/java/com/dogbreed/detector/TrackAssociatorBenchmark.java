@@ -0,0 +1,50 @@
+package com.dogbreed.detector;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Times matching through the spatial grid as a scene of constant density grows into the hundreds,
+ * and checks that the cost stays roughly linear. Wall-clock timings depend on the machine, so this
+ * only runs when asked for with {@code ./gradlew test -PrunBenchmarks}.
+ */
+public class TrackAssociatorBenchmark {
+    private static final float CELL_SIZE = 64.0f;
+    private static final int[] OBJECT_COUNTS = { 100, 200, 400, 800 };
+
+    @Test
+    public void matchingCostGrowsLinearly() {
+        assumeTrue(Boolean.getBoolean("runBenchmarks"));
+
+        final Random random = new Random(2);
+        final long[] nanosPerObject = new long[OBJECT_COUNTS.length];
+        for (int i = 0; i < OBJECT_COUNTS.length; i++) {
+            final TrackAssociatorTest.Scene scene = TrackAssociatorTest.Scene.spread(OBJECT_COUNTS[i], random);
+            final TrackAssociator associator = new TrackAssociator(CELL_SIZE);
+            for (int warmUp = 0; warmUp < 20; warmUp++) {
+                scene.associate(associator);
+            }
+
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < 20; run++) {
+                final long start = System.nanoTime();
+                scene.associate(associator);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            nanosPerObject[i] = best / OBJECT_COUNTS[i];
+            System.out.println(String.format(
+                    "%d objects: %.3f ms, %d ns per object", OBJECT_COUNTS[i], best / 1e6, nanosPerObject[i]));
+        }
+
+        // Linear matching keeps the cost per object flat; a quadratic one would grow it eightfold
+        // from the smallest to the largest scene. Allow for timer noise.
+        final long smallest = Math.max(1, nanosPerObject[0]);
+        final long largest = nanosPerObject[OBJECT_COUNTS.length - 1];
+        assertTrue("Cost per object grew from " + smallest + " to " + largest + " ns", largest < 4 * smallest);
+    }
+}
@@ -0,0 +1,174 @@
+package com.dogbreed.detector;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that matching through the spatial grid finds the same matches as comparing every pair,
+ * both in a spread out scene and in crowded ones where boxes overlap in clusters, and that
+ * clusters are solved optimally rather than greedily.
+ */
+public class TrackAssociatorTest {
+    private static final float BOX_SIZE = 40.0f;
+    // Distance between neighbouring objects on the scene grid, in pixels.
+    private static final float SPACING = 60.0f;
+    private static final float CELL_SIZE = 64.0f;
+
+    @Test
+    public void gridMatchesFullComparison() {
+        final Scene scene = Scene.spread(300, new Random(1));
+        final int[] withGrid = scene.associate(new TrackAssociator(CELL_SIZE));
+        final int[] withoutGrid = scene.associate(new TrackAssociator(0.0f));
+
+        assertArrayEquals(withoutGrid, withGrid);
+        for (int detection = 0; detection < scene.numDetections; detection++) {
+            assertEquals(scene.expectedSlots[detection], withGrid[detection]);
+        }
+    }
+
+    @Test
+    public void gridMatchesFullComparisonInCrowds() {
+        final Random random = new Random(3);
+        for (int run = 0; run < 50; run++) {
+            final Scene scene = Scene.crowded(20 + random.nextInt(40), 20 + random.nextInt(40), random);
+            final int[] withGrid = scene.associate(new TrackAssociator(CELL_SIZE));
+            final int[] withoutGrid = scene.associate(new TrackAssociator(0.0f));
+
+            assertArrayEquals(withoutGrid, withGrid);
+            assertEachTrackMatchedOnce(withGrid, scene.numTracks);
+        }
+    }
+
+    @Test
+    public void clusterIsSolvedOptimally() {
+        // Detection 0 overlaps track A a little more than track B, but detection 1 can only be
+        // matched to A. Matching detections one by one would leave detection 1 without a track.
+        final Scene scene = new Scene(3, 3);
+        final int a = 2;
+        final int b = 0;
+        final int far = 1;
+        setBox(scene.trackBoxes, a, 0.0f, 0.0f);
+        setBox(scene.trackBoxes, b, 30.0f, 0.0f);
+        setBox(scene.trackBoxes, far, 500.0f, 500.0f);
+        setBox(scene.detectionBoxes, 0, 14.0f, 0.0f);
+        setBox(scene.detectionBoxes, 1, -5.0f, 0.0f);
+        setBox(scene.detectionBoxes, 2, 900.0f, 0.0f);
+
+        final int[] expected = { b, a, -1 };
+        assertArrayEquals(expected, scene.associate(new TrackAssociator(CELL_SIZE)));
+        assertArrayEquals(expected, scene.associate(new TrackAssociator(0.0f)));
+    }
+
+    private static void assertEachTrackMatchedOnce(final int[] matchedSlots, final int numTracks) {
+        final boolean[] used = new boolean[numTracks];
+        for (final int slot : matchedSlots) {
+            if (slot != -1) {
+                assertFalse("Track " + slot + " matched twice", used[slot]);
+                used[slot] = true;
+            }
+        }
+    }
+
+    private static void setBox(final float[] boxes, final int index, final float x, final float y) {
+        boxes[4 * index] = x;
+        boxes[4 * index + 1] = y;
+        boxes[4 * index + 2] = x + BOX_SIZE;
+        boxes[4 * index + 3] = y + BOX_SIZE;
+    }
+
+    /**
+     * Tracks and detections as boxes. Track slots are shuffled so they don't line up with
+     * detection indices.
+     */
+    static class Scene {
+        final int numTracks;
+        final int numDetections;
+        final float[] trackBoxes;
+        final int[] trackSlots;
+        final float[] detectionBoxes;
+        final int[] expectedSlots;
+        final int[] matchedSlots;
+
+        Scene(final int numTracks, final int numDetections) {
+            this.numTracks = numTracks;
+            this.numDetections = numDetections;
+            trackBoxes = new float[4 * numTracks];
+            trackSlots = new int[numTracks];
+            detectionBoxes = new float[4 * numDetections];
+            expectedSlots = new int[numDetections];
+            matchedSlots = new int[numDetections];
+
+            for (int i = 0; i < numTracks; i++) {
+                trackSlots[i] = i;
+            }
+        }
+
+        /** Objects on a jittered grid, tracked as boxes and detected again slightly moved. */
+        static Scene spread(final int numObjects, final Random random) {
+            final Scene scene = new Scene(numObjects, numObjects);
+            scene.shuffleSlots(random);
+
+            final int columns = (int) Math.ceil(Math.sqrt(numObjects));
+            for (int i = 0; i < numObjects; i++) {
+                final float x = (i % columns) * SPACING + random.nextFloat() * 10.0f;
+                final float y = (i / columns) * SPACING + random.nextFloat() * 10.0f;
+                final int slot = scene.trackSlots[i];
+                setBox(scene.trackBoxes, slot, x, y);
+                setBox(scene.detectionBoxes, i, x + random.nextFloat() * 8.0f - 4.0f, y + random.nextFloat() * 8.0f - 4.0f);
+                scene.expectedSlots[i] = slot;
+            }
+
+            return scene;
+        }
+
+        /**
+         * Tracks and detections scattered around a few cluster centres, so that boxes overlap
+         * several others and the counts differ.
+         */
+        static Scene crowded(final int numTracks, final int numDetections, final Random random) {
+            final Scene scene = new Scene(numTracks, numDetections);
+            scene.shuffleSlots(random);
+
+            final int numClusters = 1 + random.nextInt(5);
+            final float[] centres = new float[2 * numClusters];
+            for (int i = 0; i < centres.length; i++) {
+                centres[i] = random.nextFloat() * 600.0f;
+            }
+
+            for (int i = 0; i < numTracks; i++) {
+                scatter(scene.trackBoxes, i, centres, random);
+            }
+
+            for (int i = 0; i < numDetections; i++) {
+                scatter(scene.detectionBoxes, i, centres, random);
+            }
+
+            return scene;
+        }
+
+        int[] associate(final TrackAssociator associator) {
+            associator.associate(trackBoxes, trackSlots, numTracks, detectionBoxes, numDetections, matchedSlots);
+            return Arrays.copyOf(matchedSlots, numDetections);
+        }
+
+        private void shuffleSlots(final Random random) {
+            for (int i = numTracks - 1; i > 0; i--) {
+                final int j = random.nextInt(i + 1);
+                final int swap = trackSlots[i];
+                trackSlots[i] = trackSlots[j];
+                trackSlots[j] = swap;
+            }
+        }
+
+        private static void scatter(final float[] boxes, final int index, final float[] centres, final Random random) {
+            final int cluster = random.nextInt(centres.length / 2);
+            setBox(boxes, index,
+                    centres[2 * cluster] + (float) random.nextGaussian() * 30.0f,
+                    centres[2 * cluster + 1] + (float) random.nextGaussian() * 30.0f);
+        }
+    }
+}